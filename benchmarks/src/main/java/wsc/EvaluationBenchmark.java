@@ -0,0 +1,99 @@
+package wsc;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ec.EvolutionState;
+import ec.Evolve;
+import ec.Individual;
+import ec.util.Parameter;
+import ec.util.ParameterDatabase;
+
+/**
+ * Benchmark of evaluating the initial population of a run set up from
+ * wsc.params, including the batched scoring done by WSCEvaluator, with the
+ * fitness cache disabled so that every tree is really evaluated. Evaluation only touches the relevant services, so the scaled
+ * repositories would measure the same thing and are not used here.
+ *
+ * The engine is either the recursive tree evaluation, the same with memoize
+ * enabled, or the graph engine. As the trees are unchanged between
+ * evaluations, memoize measures the cost of finding every subtree result in
+ * its memo.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EvaluationBenchmark {
+	// Size of the population evaluated per invocation
+	static final int TREES = 1024;
+
+	@Param({"tree", "memoize", "graph"})
+	public String engine;
+
+	private EvolutionState state;
+	private Individual[] trees;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		File home = ScaledRepository.home();
+		File snapshot = File.createTempFile("wsc-bench-", ".snapshot");
+		snapshot.delete();
+		snapshot.deleteOnExit();
+		File stat = File.createTempFile("wsc-bench-", ".stat");
+		stat.deleteOnExit();
+
+		ParameterDatabase db = new ParameterDatabase(new File(home, "wsc.params"), new String[0]);
+		db.set(new Parameter("composition-services"), new File(home, ScaledRepository.SERVICES).getPath());
+		db.set(new Parameter("composition-taxonomy"), new File(home, ScaledRepository.TAXONOMY).getPath());
+		db.set(new Parameter("composition-task"), new File(home, ScaledRepository.TASK).getPath());
+		db.set(new Parameter("composition-snapshot"), snapshot.getPath());
+		db.set(new Parameter("stat.file"), stat.getPath());
+		db.set(new Parameter("evalthreads"), "1");
+		db.set(new Parameter("breedthreads"), "1");
+		db.set(new Parameter("pop.subpop.0.size"), Integer.toString(TREES));
+		db.set(new Parameter("eval.problem.cache-size"), "0");
+		db.set(new Parameter("eval.problem.memoize"), Boolean.toString(engine.equals("memoize")));
+		db.set(new Parameter("eval.problem.engine"), engine.equals("graph") ? WSC.V_GRAPH : WSC.V_TREE);
+
+		state = Evolve.initialize(db, 0);
+		state.startFresh();
+		trees = state.population.subpops[0].individuals;
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		Evolve.cleanup(state);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(TREES)
+	public double evaluate() {
+		for (Individual ind : trees)
+			ind.evaluated = false;
+		state.evaluator.evaluatePopulation(state);
+
+		double total = 0;
+		for (Individual ind : trees)
+			total += ind.fitness.fitness();
+		return total;
+	}
+}
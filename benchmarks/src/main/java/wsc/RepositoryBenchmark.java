@@ -0,0 +1,132 @@
+package wsc;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the repository preprocessing done by WSCInitializer: the
+ * three parsers, relevant service discovery and the subsumption checks,
+ * on the bundled repository and on a copy of it scaled 10 times. Larger
+ * copies can be benchmarked with e.g. -p scale=1,10,100, but preprocessing
+ * them currently needs more heap than the default forked JVM gets.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RepositoryBenchmark {
+	// Number of sampled calls per invocation of the subsumption benchmarks
+	static final int CALLS = 1024;
+
+	@Param({"1", "10"})
+	public int scale;
+
+	private ScaledRepository repository;
+	// Holds only the indexed taxonomy
+	private WSCInitializer taxonomyOnly;
+	// Holds the fully preprocessed repository
+	private WSCInitializer preprocessed;
+
+	// Everything the relevant services make available, as used during discovery
+	private BitSet available;
+	private BitSet[] inputs = new BitSet[CALLS];
+	private BitSet[] outputs = new BitSet[CALLS];
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		repository = ScaledRepository.create(ScaledRepository.home(), scale);
+
+		taxonomyOnly = new WSCInitializer();
+		taxonomyOnly.parseWSCTaxonomyFile(repository.taxonomy.getPath());
+		taxonomyOnly.indexTaxonomy();
+
+		preprocessed = new WSCInitializer();
+		preprocessed.parseWSCTaxonomyFile(repository.taxonomy.getPath());
+		preprocessed.indexTaxonomy();
+		preprocessed.parseWSCServiceFile(repository.services.getPath());
+		preprocessed.parseWSCTaskFile(repository.task.getPath());
+		preprocessed.populateTaxonomyTree();
+		preprocessed.relevant = preprocessed.getRelevantServices(preprocessed.serviceMap, preprocessed.taskInput, preprocessed.taskOutput);
+
+		available = new BitSet();
+		available.or(preprocessed.taskInput);
+		for (Service s : preprocessed.relevant)
+			available.or(s.getOutputs());
+
+		// Sample the calls, so that every scale measures the same number of them
+		List<Service> services = new ArrayList<Service>(preprocessed.serviceMap.values());
+		Random random = new Random(1);
+		for (int i = 0; i < CALLS; i++) {
+			inputs[i] = services.get(random.nextInt(services.size())).getInputs();
+			outputs[i] = services.get(random.nextInt(services.size())).getOutputs();
+		}
+	}
+
+	@Benchmark
+	public TaxonomyNode[] parseTaxonomy() {
+		WSCInitializer init = new WSCInitializer();
+		init.parseWSCTaxonomyFile(repository.taxonomy.getPath());
+		init.indexTaxonomy();
+		return init.taxonomyNodes;
+	}
+
+	@Benchmark
+	public Map<String, Service> parseServices() {
+		taxonomyOnly.serviceMap = new HashMap<String, Service>();
+		taxonomyOnly.parseWSCServiceFile(repository.services.getPath());
+		return taxonomyOnly.serviceMap;
+	}
+
+	@Benchmark
+	public BitSet parseTask() {
+		taxonomyOnly.parseWSCTaskFile(repository.task.getPath());
+		return taxonomyOnly.taskOutput;
+	}
+
+	@Benchmark
+	public List<Service> getRelevantServices() {
+		return preprocessed.getRelevantServices(preprocessed.serviceMap, preprocessed.taskInput, preprocessed.taskOutput);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(CALLS)
+	public int isSubsumed() {
+		int subsumed = 0;
+		for (int i = 0; i < CALLS; i++) {
+			if (preprocessed.isSubsumed(inputs[i], available))
+				subsumed++;
+		}
+		return subsumed;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(CALLS)
+	public int countInputsSatisfied() {
+		int satisfied = 0;
+		for (int i = 0; i < CALLS; i++)
+			satisfied += preprocessed.countInputsSatisfied(outputs[i], inputs[i]);
+		return satisfied;
+	}
+}
@@ -0,0 +1,142 @@
+package wsc;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Builds scaled-up copies of the bundled repository for benchmarking. A
+ * repository scaled by k holds k copies of the taxonomy and of the services,
+ * where every concept, instance and service name of copy i > 0 carries the
+ * suffix "_i". The copies are disjoint, and the task still refers to the
+ * original copy, so the relevant services stay the same while the taxonomy
+ * and service files grow k-fold.
+ */
+public class ScaledRepository {
+	public static final String SERVICES = "services-output.xml";
+	public static final String TAXONOMY = "taxonomy.xml";
+	public static final String TASK = "problem.xml";
+
+	public final File services;
+	public final File taxonomy;
+	public final File task;
+
+	private ScaledRepository(File services, File taxonomy, File task) {
+		this.services = services;
+		this.taxonomy = taxonomy;
+		this.task = task;
+	}
+
+	/**
+	 * Returns the repository in the given directory, scaled by the given
+	 * factor. Scaled files are written to a temporary directory, which is
+	 * removed when the JVM exits.
+	 *
+	 * @param home directory holding the bundled files
+	 * @param scale
+	 * @return repository files
+	 * @throws IOException
+	 */
+	public static ScaledRepository create(File home, int scale) throws IOException {
+		File services = new File(home, SERVICES);
+		File taxonomy = new File(home, TAXONOMY);
+		File task = new File(home, TASK);
+		if (scale == 1)
+			return new ScaledRepository(services, taxonomy, task);
+
+		File dir = File.createTempFile("wsc-x" + scale + "-", "");
+		dir.delete();
+		dir.mkdir();
+		dir.deleteOnExit();
+		File scaledServices = new File(dir, SERVICES);
+		File scaledTaxonomy = new File(dir, TAXONOMY);
+		scaledServices.deleteOnExit();
+		scaledTaxonomy.deleteOnExit();
+
+		try {
+			replicate(services, scaledServices, "services", scale);
+			replicate(taxonomy, scaledTaxonomy, "taxonomy", scale);
+		}
+		catch (XMLStreamException e) {
+			throw new IOException(e);
+		}
+		return new ScaledRepository(scaledServices, scaledTaxonomy, task);
+	}
+
+	/**
+	 * Resolves the directory holding wsc.params and the bundled files: the
+	 * wsc.home system property if set, otherwise the working directory or
+	 * its parent.
+	 *
+	 * @return home directory
+	 */
+	public static File home() {
+		String home = System.getProperty("wsc.home");
+		if (home != null)
+			return new File(home).getAbsoluteFile();
+		File dir = new File("").getAbsoluteFile();
+		if (new File(dir, "wsc.params").isFile())
+			return dir;
+		return dir.getParentFile();
+	}
+
+	private static void replicate(File in, File out, String rootTag, int scale) throws IOException, XMLStreamException {
+		OutputStream os = new BufferedOutputStream(new FileOutputStream(out), 1 << 16);
+		XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(os, "UTF-8");
+		try {
+			writer.writeStartDocument("UTF-8", "1.0");
+			writer.writeStartElement(rootTag);
+			for (int copy = 0; copy < scale; copy++)
+				copyContents(in, writer, copy == 0 ? "" : "_" + copy);
+			writer.writeEndElement();
+			writer.writeEndDocument();
+		}
+		finally {
+			writer.close();
+			os.close();
+		}
+	}
+
+	// Copies everything below the root element, appending the suffix to all names
+	private static void copyContents(File file, XMLStreamWriter writer, String suffix) throws IOException, XMLStreamException {
+		InputStream in = new BufferedInputStream(new FileInputStream(file));
+		XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(in);
+		try {
+			int depth = 0;
+			while (reader.hasNext()) {
+				int event = reader.next();
+				if (event == XMLStreamConstants.START_ELEMENT) {
+					if (depth++ == 0)
+						continue;
+					writer.writeStartElement(reader.getLocalName());
+					for (int i = 0; i < reader.getAttributeCount(); i++) {
+						String name = reader.getAttributeLocalName(i);
+						String value = reader.getAttributeValue(i);
+						writer.writeAttribute(name, name.equals("name") ? value + suffix : value);
+					}
+				}
+				else if (event == XMLStreamConstants.END_ELEMENT) {
+					if (--depth == 0)
+						break;
+					writer.writeEndElement();
+				}
+			}
+		}
+		finally {
+			reader.close();
+			in.close();
+		}
+	}
+}
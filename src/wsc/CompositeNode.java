@@ -0,0 +1,43 @@
+package wsc;
+
+import ec.EvolutionState;
+import ec.Problem;
+import ec.gp.ADFStack;
+import ec.gp.GPData;
+import ec.gp.GPIndividual;
+import ec.gp.GPNode;
+
+/**
+ * Base class for nodes that compose the results of two child subtrees.
+ * The left child is evaluated into the current frame of the WSCData and
+ * the right child into the next one, and subclasses then merge the two.
+ */
+public abstract class CompositeNode extends GPNode {
+	// Result of this subtree, reused for as long as the children's results don't change
+	public SubtreeMemo memo;
+
+	@Override
+	public void eval(final EvolutionState state, final int thread, final GPData input, final ADFStack stack, final GPIndividual individual, final Problem problem) {
+		WSCData rd = ((WSCData) (input));
+
+		children[0].eval(state, thread, input, stack, individual, problem);
+		rd.push();
+		children[1].eval(state, thread, input, stack, individual, problem);
+		rd.pop();
+		combine(rd, (WSCInitializer) state.initializer);
+	}
+
+	/**
+	 * Merges the right child's result (in the frame after the current one)
+	 * into the left child's result (in the current frame).
+	 *
+	 * @param rd
+	 * @param init
+	 */
+	public abstract void combine(WSCData rd, WSCInitializer init);
+
+	@Override
+	public int expectedChildren() {
+		return 2;
+	}
+}
@@ -0,0 +1,268 @@
+package wsc;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import ec.gp.GPNode;
+
+/**
+ * Alternative to the recursive evaluation of composition trees. A tree is
+ * first flattened into a graph in which structurally identical subtrees,
+ * including repeated services, are merged into a single node. The nodes are
+ * numbered children first, so the graph can then be evaluated in one pass
+ * over its nodes in that order, without recursion. The results are exactly
+ * those of evaluating the tree itself: a merged subtree counts once per
+ * occurrence, as its result is simply reused by every parent.
+ *
+ * Services contribute their own input and output sets, and sequences share
+ * the input set of their left child, so only the unions are written to sets
+ * owned by the graph. These, like all other arrays, are kept between
+ * evaluations, so every evaluation thread needs its own graph.
+ */
+public class CompositionGraph {
+	private static final int SERVICE = 0;
+	private static final int SEQUENCE = 1;
+	private static final int PARALLEL = 2;
+	private static final int INITIAL_NODES = 64;
+
+	// Number of nodes in the graph, and their kind, children and service
+	private int size;
+	private int[] kind = new int[INITIAL_NODES];
+	private int[] left = new int[INITIAL_NODES];
+	private int[] right = new int[INITIAL_NODES];
+	private Service[] services = new Service[INITIAL_NODES];
+
+	// Results per node; QoS values of node n start at n * WSCData.QOS_SIZE
+	private double[] qos = new double[INITIAL_NODES * WSCData.QOS_SIZE];
+	private BitSet[] inputs = new BitSet[INITIAL_NODES];
+	private BitSet[] outputs = new BitSet[INITIAL_NODES];
+	private int[] totalInputs = new int[INITIAL_NODES];
+	private int[] satisfiedInputs = new int[INITIAL_NODES];
+	// Sets holding the unions computed for each node, allocated on first use
+	private BitSet[] ownedInputs = new BitSet[INITIAL_NODES];
+	private BitSet[] ownedOutputs = new BitSet[INITIAL_NODES];
+
+	// Open addressing table from node key to node, whose entries are only
+	// valid if their stamp is the current generation
+	private long[] tableKeys = new long[INITIAL_NODES * 2];
+	private int[] tableNodes = new int[INITIAL_NODES * 2];
+	private int[] tableStamps = new int[INITIAL_NODES * 2];
+	private int generation;
+
+	// Tree nodes in pre-order, and the graph nodes of the subtrees built so far
+	private GPNode[] order = new GPNode[INITIAL_NODES];
+	private GPNode[] pending = new GPNode[INITIAL_NODES];
+	private int[] built = new int[INITIAL_NODES];
+
+	// Result of the whole tree, set by evaluate
+	public final double[] resultQos = new double[WSCData.QOS_SIZE];
+	public BitSet resultInputs;
+	public BitSet resultOutputs;
+	public int resultTotalInputs;
+	public int resultSatisfiedInputs;
+
+	/**
+	 * Evaluates the tree with the given root, leaving its result in the
+	 * result fields.
+	 *
+	 * @param root
+	 * @param init
+	 */
+	public void evaluate(GPNode root, WSCInitializer init) {
+		build(root, init);
+		for (int n = 0; n < size; n++) {
+			if (kind[n] == SERVICE)
+				evaluateService(n);
+			else
+				evaluateComposite(n, init);
+		}
+
+		int r = size - 1;
+		System.arraycopy(qos, r * WSCData.QOS_SIZE, resultQos, 0, WSCData.QOS_SIZE);
+		resultInputs = inputs[r];
+		resultOutputs = outputs[r];
+		resultTotalInputs = totalInputs[r];
+		resultSatisfiedInputs = satisfiedInputs[r];
+	}
+
+	/**
+	 * Gets the number of nodes in the graph of the last evaluated tree.
+	 *
+	 * @return number of nodes
+	 */
+	public int size() {
+		return size;
+	}
+
+	private void evaluateService(int n) {
+		Service s = services[n];
+		System.arraycopy(s.qos, 0, qos, n * WSCData.QOS_SIZE, WSCData.QOS_SIZE);
+		inputs[n] = s.inputs;
+		outputs[n] = s.outputs;
+		totalInputs[n] = s.inputs.cardinality();
+		satisfiedInputs[n] = totalInputs[n];
+	}
+
+	// Same merges as Sequence.combine and Parallel.combine
+	private void evaluateComposite(int n, WSCInitializer init) {
+		int l = left[n];
+		int r = right[n];
+		int q = n * WSCData.QOS_SIZE;
+		int lq = l * WSCData.QOS_SIZE;
+		int rq = r * WSCData.QOS_SIZE;
+
+		if (kind[n] == SEQUENCE) {
+			qos[q + WSCInitializer.TIME] = qos[lq + WSCInitializer.TIME] + qos[rq + WSCInitializer.TIME];
+			inputs[n] = inputs[l];
+			satisfiedInputs[n] = satisfiedInputs[l] + satisfiedInputs[r] + init.countInputsSatisfied(outputs[l], inputs[r]);
+		}
+		else {
+			qos[q + WSCInitializer.TIME] = Math.max(qos[lq + WSCInitializer.TIME], qos[rq + WSCInitializer.TIME]);
+			inputs[n] = union(ownedInputs, n, inputs[l], inputs[r]);
+			satisfiedInputs[n] = satisfiedInputs[l] + satisfiedInputs[r];
+		}
+		qos[q + WSCInitializer.COST] = qos[lq + WSCInitializer.COST] + qos[rq + WSCInitializer.COST];
+		qos[q + WSCInitializer.AVAILABILITY] = qos[lq + WSCInitializer.AVAILABILITY] * qos[rq + WSCInitializer.AVAILABILITY];
+		qos[q + WSCInitializer.RELIABILITY] = qos[lq + WSCInitializer.RELIABILITY] * qos[rq + WSCInitializer.RELIABILITY];
+		outputs[n] = union(ownedOutputs, n, outputs[l], outputs[r]);
+		totalInputs[n] = totalInputs[l] + totalInputs[r];
+	}
+
+	private static BitSet union(BitSet[] owned, int n, BitSet a, BitSet b) {
+		BitSet set = owned[n];
+		if (set == null) {
+			set = new BitSet();
+			owned[n] = set;
+		}
+		else
+			set.clear();
+		set.or(a);
+		set.or(b);
+		return set;
+	}
+
+	/**
+	 * Flattens the tree into the graph. The tree nodes are listed in
+	 * pre-order, and then visited backwards, which reaches every node after
+	 * all of its descendants; the graph nodes of the finished subtrees are
+	 * kept on a stack until their parent is reached.
+	 */
+	private void build(GPNode root, WSCInitializer init) {
+		size = 0;
+		if (++generation == 0) {
+			Arrays.fill(tableStamps, 0);
+			generation = 1;
+		}
+
+		int count = 0;
+		int top = 0;
+		pending[top++] = root;
+		while (top > 0) {
+			GPNode node = pending[--top];
+			if (count == order.length)
+				order = Arrays.copyOf(order, count * 2);
+			order[count++] = node;
+			if (node.children.length == 2) {
+				if (top + 2 > pending.length)
+					pending = Arrays.copyOf(pending, pending.length * 2);
+				pending[top++] = node.children[1];
+				pending[top++] = node.children[0];
+			}
+		}
+
+		if (built.length < count)
+			built = new int[order.length];
+		top = 0;
+		for (int i = count - 1; i >= 0; i--) {
+			GPNode node = order[i];
+			int n;
+			if (node instanceof ServiceNode) {
+				Service s = ((ServiceNode) node).getService();
+				n = intern(SERVICE, init.serviceToIndexMap.get(s.getName()), 0, s);
+			}
+			else {
+				// The left child's subtree was visited last, so it is on top
+				int l = built[--top];
+				int r = built[--top];
+				if (node instanceof Parallel) {
+					// Parallel is commutative, so order its children to merge both orders
+					n = intern(PARALLEL, Math.min(l, r), Math.max(l, r), null);
+				}
+				else
+					n = intern(SEQUENCE, l, r, null);
+			}
+			built[top++] = n;
+			order[i] = null;
+		}
+	}
+
+	// Gets the node with the given contents, adding it if the graph has no such node yet
+	private int intern(int k, int a, int b, Service s) {
+		long key = ((long) k << 60) | ((long) a << 30) | b;
+		int mask = tableKeys.length - 1;
+		int slot = hash(key) & mask;
+		while (tableStamps[slot] == generation) {
+			if (tableKeys[slot] == key)
+				return tableNodes[slot];
+			slot = (slot + 1) & mask;
+		}
+
+		int n = size++;
+		if (n == kind.length)
+			grow();
+		kind[n] = k;
+		left[n] = a;
+		right[n] = b;
+		services[n] = s;
+
+		tableKeys[slot] = key;
+		tableNodes[slot] = n;
+		tableStamps[slot] = generation;
+		// Keep the table at most half full
+		if (size * 2 > tableKeys.length)
+			rehash();
+		return n;
+	}
+
+	private static int hash(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	private void grow() {
+		int capacity = kind.length * 2;
+		kind = Arrays.copyOf(kind, capacity);
+		left = Arrays.copyOf(left, capacity);
+		right = Arrays.copyOf(right, capacity);
+		services = Arrays.copyOf(services, capacity);
+		qos = Arrays.copyOf(qos, capacity * WSCData.QOS_SIZE);
+		inputs = Arrays.copyOf(inputs, capacity);
+		outputs = Arrays.copyOf(outputs, capacity);
+		totalInputs = Arrays.copyOf(totalInputs, capacity);
+		satisfiedInputs = Arrays.copyOf(satisfiedInputs, capacity);
+		ownedInputs = Arrays.copyOf(ownedInputs, capacity);
+		ownedOutputs = Arrays.copyOf(ownedOutputs, capacity);
+	}
+
+	private void rehash() {
+		long[] oldKeys = tableKeys;
+		int[] oldNodes = tableNodes;
+		int[] oldStamps = tableStamps;
+		int capacity = oldKeys.length * 2;
+		tableKeys = new long[capacity];
+		tableNodes = new int[capacity];
+		tableStamps = new int[capacity];
+
+		int mask = capacity - 1;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldStamps[i] != generation)
+				continue;
+			int slot = hash(oldKeys[i]) & mask;
+			while (tableStamps[slot] == generation)
+				slot = (slot + 1) & mask;
+			tableKeys[slot] = oldKeys[i];
+			tableNodes[slot] = oldNodes[i];
+			tableStamps[slot] = generation;
+		}
+	}
+}
@@ -0,0 +1,154 @@
+package wsc;
+
+import java.util.BitSet;
+import java.util.List;
+
+import ec.gp.GPNode;
+
+/**
+ * Checks that the sequences in a composition can run, which breeding and
+ * tree building use to avoid creating compositions that are bound to be
+ * poor before spending an evaluation on them. A sequence can run if every
+ * input of its right-hand side is satisfied by the outputs of its left-hand
+ * side or by the task inputs.
+ *
+ * As in evaluation, the inputs of a subtree are those of its first service
+ * to run: the inputs of both sides of a parallel, but only those of the
+ * left-hand side of a sequence. Its outputs are those of all its services.
+ */
+public class Feasibility {
+	private final BitSet inputs;
+	private final BitSet outputs;
+
+	private Feasibility(BitSet inputs, BitSet outputs) {
+		this.inputs = inputs;
+		this.outputs = outputs;
+	}
+
+	/**
+	 * Checks whether every sequence in the tree rooted at the given node can
+	 * run.
+	 *
+	 * @param root
+	 * @param init
+	 * @return true if the tree is feasible
+	 */
+	public static boolean isFeasible(GPNode root, WSCInitializer init) {
+		return check(root, init) != null;
+	}
+
+	/**
+	 * Checks whether every sequence in a LinearIndividual's genome can run.
+	 *
+	 * @param genome
+	 * @param init
+	 * @return true if the genome is feasible
+	 */
+	public static boolean isFeasible(int[] genome, WSCInitializer init) {
+		return check(genome, new int[1], init.relevant, init) != null;
+	}
+
+	/**
+	 * Checks whether the given subtree can replace the subtree at the given
+	 * position of another tree: the subtree itself must be feasible, and so
+	 * must every sequence it would become part of. Sequences elsewhere in
+	 * the tree are not checked, since the replacement doesn't change them.
+	 *
+	 * @param subtree
+	 * @param position root of the subtree to be replaced
+	 * @param init
+	 * @return true if the subtree fits in the position
+	 */
+	public static boolean fits(GPNode subtree, GPNode position, WSCInitializer init) {
+		Feasibility path = check(subtree, init);
+		if (path == null)
+			return false;
+
+		// Merge the subtree's inputs and outputs with those of its siblings on the way up to the root
+		BitSet available = new BitSet();
+		GPNode node = position;
+		while (node.parent instanceof GPNode) {
+			GPNode parent = (GPNode) node.parent;
+			Feasibility sibling = collect(parent.children[1 - node.argposition]);
+			if (parent instanceof Sequence) {
+				Feasibility left = node.argposition == 0 ? path : sibling;
+				Feasibility right = node.argposition == 0 ? sibling : path;
+				if (!canFollow(left, right, available, init))
+					return false;
+				path = new Feasibility(left.inputs, union(left.outputs, right.outputs));
+			}
+			else
+				path = new Feasibility(union(path.inputs, sibling.inputs), union(path.outputs, sibling.outputs));
+			node = parent;
+		}
+		return true;
+	}
+
+	// Gets the inputs and outputs of a subtree, or null if any of its sequences can't run
+	private static Feasibility check(GPNode node, WSCInitializer init) {
+		if (node instanceof ServiceNode) {
+			Service s = ((ServiceNode) node).getService();
+			return new Feasibility(s.getInputs(), s.getOutputs());
+		}
+		Feasibility left = check(node.children[0], init);
+		if (left == null)
+			return null;
+		Feasibility right = check(node.children[1], init);
+		if (right == null)
+			return null;
+		if (node instanceof Sequence) {
+			if (!canFollow(left, right, new BitSet(), init))
+				return null;
+			return new Feasibility(left.inputs, union(left.outputs, right.outputs));
+		}
+		return new Feasibility(union(left.inputs, right.inputs), union(left.outputs, right.outputs));
+	}
+
+	// Gets the inputs and outputs of the subtree of a genome starting at next[0], moving it past the subtree
+	private static Feasibility check(int[] genome, int[] next, List<Service> relevant, WSCInitializer init) {
+		int gene = genome[next[0]++];
+		if (gene >= 0) {
+			Service s = relevant.get(gene);
+			return new Feasibility(s.getInputs(), s.getOutputs());
+		}
+		Feasibility left = check(genome, next, relevant, init);
+		if (left == null)
+			return null;
+		Feasibility right = check(genome, next, relevant, init);
+		if (right == null)
+			return null;
+		if (gene == LinearIndividual.SEQUENCE) {
+			if (!canFollow(left, right, new BitSet(), init))
+				return null;
+			return new Feasibility(left.inputs, union(left.outputs, right.outputs));
+		}
+		return new Feasibility(union(left.inputs, right.inputs), union(left.outputs, right.outputs));
+	}
+
+	// Gets the inputs and outputs of a subtree, regardless of whether it can run
+	private static Feasibility collect(GPNode node) {
+		if (node instanceof ServiceNode) {
+			Service s = ((ServiceNode) node).getService();
+			return new Feasibility(s.getInputs(), s.getOutputs());
+		}
+		Feasibility left = collect(node.children[0]);
+		Feasibility right = collect(node.children[1]);
+		if (node instanceof Sequence)
+			return new Feasibility(left.inputs, union(left.outputs, right.outputs));
+		return new Feasibility(union(left.inputs, right.inputs), union(left.outputs, right.outputs));
+	}
+
+	// Checks whether the right-hand side of a sequence can run after the left-hand side
+	private static boolean canFollow(Feasibility left, Feasibility right, BitSet available, WSCInitializer init) {
+		available.clear();
+		available.or(left.outputs);
+		available.or(init.taskInput);
+		return init.isSubsumed(right.inputs, available);
+	}
+
+	private static BitSet union(BitSet a, BitSet b) {
+		BitSet u = (BitSet) a.clone();
+		u.or(b);
+		return u;
+	}
+}
@@ -0,0 +1,213 @@
+package wsc;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ec.gp.GPNode;
+
+/**
+ * Bounded, thread-safe cache of raw fitness components (see WSCFitness),
+ * keyed by the canonical structure of the composition tree. Crossover
+ * produces many trees with the same shape and services, and these only need
+ * to be evaluated once. When the cache is full, the least recently used
+ * entry is evicted.
+ *
+ * A tree's key is its prefix encoding, with services represented by their
+ * index in the relevant service list. Since Parallel is commutative, its
+ * children are encoded in a fixed order, so that swapping them results in
+ * the same key.
+ */
+public class FitnessCache {
+	private static final int SEQUENCE = -1;
+	private static final int PARALLEL = -2;
+
+	private final Map<Key, double[]> entries;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	public FitnessCache(final int maxSize) {
+		entries = new LinkedHashMap<Key, double[]>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, double[]> eldest) {
+				return size() > maxSize;
+			}
+		};
+	}
+
+	/**
+	 * Builds the cache key for the tree with the given root.
+	 *
+	 * @param root
+	 * @param init
+	 * @return key
+	 */
+	public Key keyFor(GPNode root, WSCInitializer init) {
+		Encoder encoder = new Encoder(init);
+		encoder.encode(root);
+		return new Key(Arrays.copyOf(encoder.code, encoder.size));
+	}
+
+	/**
+	 * Builds the cache key for the given linear genome, which is the same as
+	 * that of the tree it encodes.
+	 *
+	 * @param genome
+	 * @param init
+	 * @return key
+	 */
+	public Key keyFor(int[] genome, WSCInitializer init) {
+		Encoder encoder = new Encoder(init);
+		encoder.encode(genome, 0);
+		return new Key(Arrays.copyOf(encoder.code, encoder.size));
+	}
+
+	/**
+	 * Looks up the fitness components of the tree with the given key,
+	 * copying them into the given array if found.
+	 *
+	 * @param key
+	 * @param components
+	 * @return whether the tree is in the cache
+	 */
+	public boolean get(Key key, double[] components) {
+		double[] cached;
+		synchronized (entries) {
+			cached = entries.get(key);
+		}
+		if (cached == null) {
+			misses.incrementAndGet();
+			return false;
+		}
+		hits.incrementAndGet();
+		System.arraycopy(cached, 0, components, 0, cached.length);
+		return true;
+	}
+
+	public void put(Key key, double[] components) {
+		double[] copy = components.clone();
+		synchronized (entries) {
+			entries.put(key, copy);
+		}
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public int size() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	/**
+	 * Canonical encoding of a composition tree.
+	 */
+	public static class Key {
+		private final int[] code;
+		private final int hash;
+
+		private Key(int[] code) {
+			this.code = code;
+			this.hash = Arrays.hashCode(code);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (other instanceof Key) {
+				Key o = (Key) other;
+				return hash == o.hash && Arrays.equals(code, o.code);
+			}
+			return false;
+		}
+	}
+
+	private static class Encoder {
+		private final WSCInitializer init;
+		private int[] code = new int[64];
+		private int size;
+
+		private Encoder(WSCInitializer init) {
+			this.init = init;
+		}
+
+		private void encode(GPNode node) {
+			if (node instanceof ServiceNode) {
+				add(init.serviceToIndexMap.get(((ServiceNode) node).getService().getName()));
+			}
+			else if (node instanceof Parallel) {
+				add(PARALLEL);
+				int start = size;
+				encode(node.children[0]);
+				int middle = size;
+				encode(node.children[1]);
+				if (compare(start, middle, size) > 0)
+					swap(start, middle, size);
+			}
+			else {
+				add(SEQUENCE);
+				encode(node.children[0]);
+				encode(node.children[1]);
+			}
+		}
+
+		// Encodes the subtree at the given position of a linear genome, returning the position after it
+		private int encode(int[] genome, int i) {
+			int gene = genome[i];
+			if (gene == LinearIndividual.PARALLEL) {
+				add(PARALLEL);
+				int start = size;
+				i = encode(genome, i + 1);
+				int middle = size;
+				i = encode(genome, i);
+				if (compare(start, middle, size) > 0)
+					swap(start, middle, size);
+				return i;
+			}
+			else if (gene == LinearIndividual.SEQUENCE) {
+				add(SEQUENCE);
+				return encode(genome, encode(genome, i + 1));
+			}
+			add(gene);
+			return i + 1;
+		}
+
+		private void add(int value) {
+			if (size == code.length)
+				code = Arrays.copyOf(code, size * 2);
+			code[size++] = value;
+		}
+
+		// Lexicographic comparison of the ranges [start, middle) and [middle, end)
+		private int compare(int start, int middle, int end) {
+			int i = start;
+			int j = middle;
+			while (i < middle && j < end) {
+				if (code[i] != code[j])
+					return code[i] < code[j] ? -1 : 1;
+				i++;
+				j++;
+			}
+			return (middle - start) - (end - middle);
+		}
+
+		private void swap(int start, int middle, int end) {
+			int[] first = Arrays.copyOfRange(code, start, middle);
+			System.arraycopy(code, middle, code, start, end - middle);
+			System.arraycopy(first, 0, code, start + end - middle, first.length);
+		}
+	}
+}
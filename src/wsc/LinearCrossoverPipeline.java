@@ -0,0 +1,129 @@
+package wsc;
+
+import ec.BreedingPipeline;
+import ec.EvolutionState;
+import ec.Individual;
+import ec.util.MersenneTwisterFast;
+import ec.util.Parameter;
+
+/**
+ * Subtree crossover for LinearIndividuals, which works like ECJ's
+ * CrossoverPipeline: a subtree is picked in each parent, a composite node's
+ * with probability 1 - terminals and otherwise a service's, and the two
+ * children swap them. A swap is only done if neither child would become
+ * deeper than maxdepth, and all of their sequences can run (see
+ * Feasibility, as in WSCCrossoverPipeline). This is retried up to the given
+ * number of tries, after which the children are copies of the parents.
+ * Swapping subtrees is just splicing their ranges of the parents' genomes.
+ */
+public class LinearCrossoverPipeline extends BreedingPipeline {
+	public static final String P_CROSSOVER = "xover";
+	public static final String P_MAXDEPTH = "maxdepth";
+	public static final String P_TRIES = "tries";
+	public static final String P_TERMINALS = "terminals";
+	public static final int NUM_SOURCES = 2;
+
+	public int maxDepth;
+	public int numTries;
+	public double terminalProbability;
+	// Parents of the children being produced
+	public Individual[] parents = new Individual[NUM_SOURCES];
+
+	@Override
+	public Parameter defaultBase() {
+		return LinearSpecies.base().push(P_CROSSOVER);
+	}
+
+	@Override
+	public int numSources() {
+		return NUM_SOURCES;
+	}
+
+	@Override
+	public int typicalIndsProduced() {
+		return 2;
+	}
+
+	@Override
+	public Object clone() {
+		LinearCrossoverPipeline other = (LinearCrossoverPipeline) super.clone();
+		other.parents = parents.clone();
+		return other;
+	}
+
+	@Override
+	public void setup(final EvolutionState state, final Parameter base) {
+		super.setup(state, base);
+		Parameter def = defaultBase();
+
+		maxDepth = state.parameters.getInt(base.push(P_MAXDEPTH), def.push(P_MAXDEPTH), 1);
+		if (maxDepth < 1)
+			state.output.fatal("Crossover must have a maximum depth of at least 1", base.push(P_MAXDEPTH), def.push(P_MAXDEPTH));
+		numTries = state.parameters.getInt(base.push(P_TRIES), def.push(P_TRIES), 1);
+		if (numTries < 1)
+			state.output.fatal("Crossover must try at least once", base.push(P_TRIES), def.push(P_TRIES));
+		terminalProbability = state.parameters.getDoubleWithDefault(base.push(P_TERMINALS), def.push(P_TERMINALS), 0.1);
+		if (terminalProbability < 0.0 || terminalProbability > 1.0)
+			state.output.fatal("Terminal probability must be between 0 and 1", base.push(P_TERMINALS), def.push(P_TERMINALS));
+	}
+
+	@Override
+	public int produce(final int min, final int max, final int start, final int subpopulation, final Individual[] inds,
+			final EvolutionState state, final int thread) {
+		// how many individuals should we make?
+		int n = typicalIndsProduced();
+		if (n < min)
+			n = min;
+		if (n > max)
+			n = max;
+
+		// should we bother?
+		if (!state.random[thread].nextBoolean(likelihood))
+			return reproduce(n, start, subpopulation, inds, state, thread, true);
+
+		MersenneTwisterFast random = state.random[thread];
+		WSCInitializer init = (WSCInitializer) state.initializer;
+		for (int q = start; q < n + start;) {
+			if (sources[0] == sources[1])
+				sources[0].produce(2, 2, 0, subpopulation, parents, state, thread);
+			else {
+				sources[0].produce(1, 1, 0, subpopulation, parents, state, thread);
+				sources[1].produce(1, 1, 1, subpopulation, parents, state, thread);
+			}
+			LinearIndividual parent1 = (LinearIndividual) parents[0];
+			LinearIndividual parent2 = (LinearIndividual) parents[1];
+			int[] g1 = parent1.genome;
+			int[] g2 = parent2.genome;
+			boolean both = n - (q - start) >= 2;
+
+			int[] child1 = null;
+			int[] child2 = null;
+			boolean swap = false;
+			for (int x = 0; x < numTries && !swap; x++) {
+				int p1 = LinearIndividual.pickPoint(g1, random, terminalProbability);
+				int p2 = LinearIndividual.pickPoint(g2, random, terminalProbability);
+				if (LinearIndividual.atDepth(g1, p1) + LinearIndividual.depth(g2, p2) > maxDepth
+						|| (both && LinearIndividual.atDepth(g2, p2) + LinearIndividual.depth(g1, p1) > maxDepth))
+					continue;
+				int e1 = LinearIndividual.subtreeEnd(g1, p1);
+				int e2 = LinearIndividual.subtreeEnd(g2, p2);
+				child1 = LinearIndividual.splice(g1, p1, e1, g2, p2, e2);
+				child2 = both ? LinearIndividual.splice(g2, p2, e2, g1, p1, e1) : null;
+				swap = Feasibility.isFeasible(child1, init) && (!both || Feasibility.isFeasible(child2, init));
+			}
+
+			// The parents aren't changed, so children that are copies keep their fitness
+			if (swap) {
+				inds[q++] = parent1.withGenome(child1);
+				if (both)
+					inds[q++] = parent2.withGenome(child2);
+			}
+			else {
+				inds[q++] = (Individual) parent1.clone();
+				if (both)
+					inds[q++] = (Individual) parent2.clone();
+			}
+		}
+		return n;
+	}
+}
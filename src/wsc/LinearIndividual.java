@@ -0,0 +1,300 @@
+package wsc;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.LineNumberReader;
+import java.util.Arrays;
+import java.util.List;
+
+import ec.EvolutionState;
+import ec.Individual;
+import ec.util.Code;
+import ec.util.MersenneTwisterFast;
+import ec.util.Parameter;
+
+/**
+ * Composition encoded as a flat int array rather than a tree of GPNodes:
+ * the tree's nodes in prefix order, where SEQUENCE and PARALLEL stand for
+ * the composite nodes, each followed by its left and then its right
+ * subtree, and any other value is a service's index in the relevant service
+ * list (as in serviceToIndexMap). Cloning an individual copies one array,
+ * and evaluation is a single loop over it.
+ *
+ * Built by LinearSpecies, and bred by LinearCrossoverPipeline and
+ * LinearMutationPipeline.
+ */
+public class LinearIndividual extends Individual {
+	public static final String P_INDIVIDUAL = "ind";
+	public static final int SEQUENCE = -1;
+	public static final int PARALLEL = -2;
+
+	// Merge the two frames at the top of the data, like the nodes they stand for
+	private static final CompositeNode SEQUENCE_NODE = new Sequence();
+	private static final CompositeNode PARALLEL_NODE = new Parallel();
+
+	public int[] genome = new int[0];
+
+	@Override
+	public Parameter defaultBase() {
+		return LinearSpecies.base().push(P_INDIVIDUAL);
+	}
+
+	@Override
+	public Object clone() {
+		LinearIndividual other = (LinearIndividual) super.clone();
+		other.genome = genome.clone();
+		return other;
+	}
+
+	/**
+	 * Copies the individual with a new genome, without copying the old one
+	 * first. The copy still has to be evaluated.
+	 *
+	 * @param genome
+	 * @return the copy
+	 */
+	public LinearIndividual withGenome(int[] genome) {
+		LinearIndividual other = (LinearIndividual) super.clone();
+		other.genome = genome;
+		other.evaluated = false;
+		return other;
+	}
+
+	@Override
+	public boolean equals(Object ind) {
+		return ind != null && ind.getClass() == getClass() && Arrays.equals(genome, ((LinearIndividual) ind).genome);
+	}
+
+	@Override
+	public int hashCode() {
+		return getClass().hashCode() ^ Arrays.hashCode(genome);
+	}
+
+	@Override
+	public long size() {
+		return genome.length;
+	}
+
+	public int depth() {
+		return depth(genome, 0);
+	}
+
+	/**
+	 * Evaluates the composition, leaving its result in frame 0 of the data.
+	 * Each service is loaded into the current frame, and completes the left
+	 * or right-hand side of the innermost composite node still open. A left
+	 * side moves on to the next frame for the right side, and a right side
+	 * is merged into the frame below, completing its node in turn.
+	 *
+	 * @param rd
+	 * @param init
+	 * @param open scratch space for the open composite nodes, at least as long as the genome
+	 */
+	public void evaluate(WSCData rd, WSCInitializer init, int[] open) {
+		List<Service> relevant = init.relevant;
+		rd.reset();
+		// Positions of the open nodes, complemented once their left side is done
+		int top = 0;
+		for (int i = 0; i < genome.length; i++) {
+			int gene = genome[i];
+			if (gene < 0) {
+				open[top++] = i;
+				continue;
+			}
+			rd.load(relevant.get(gene));
+			while (top > 0) {
+				int node = open[top - 1];
+				if (node >= 0) {
+					open[top - 1] = ~node;
+					rd.push();
+					break;
+				}
+				rd.pop();
+				(genome[~node] == SEQUENCE ? SEQUENCE_NODE : PARALLEL_NODE).combine(rd, init);
+				top--;
+			}
+		}
+	}
+
+	/**
+	 * Gets the position just past the end of the subtree starting at the
+	 * given position.
+	 */
+	public static int subtreeEnd(int[] genome, int start) {
+		int needed = 1;
+		int i = start;
+		while (needed > 0)
+			needed += genome[i++] < 0 ? 1 : -1;
+		return i;
+	}
+
+	/**
+	 * Gets the depth of the subtree starting at the given position, where a
+	 * single service has depth 1 (as in GPNode.depth).
+	 */
+	public static int depth(int[] genome, int start) {
+		int end = subtreeEnd(genome, start);
+		// Each open node counts down the sides it still needs
+		int[] remaining = new int[end - start];
+		int open = 0;
+		int max = 0;
+		for (int i = start; i < end; i++) {
+			max = Math.max(max, open + 1);
+			if (genome[i] < 0)
+				remaining[open++] = 2;
+			else {
+				while (open > 0 && --remaining[open - 1] == 0)
+					open--;
+			}
+		}
+		return max;
+	}
+
+	/**
+	 * Gets the depth at which the given position lies in the tree, where
+	 * the root is at depth 0 (as in GPNode.atDepth).
+	 */
+	public static int atDepth(int[] genome, int position) {
+		int[] remaining = new int[position + 1];
+		int open = 0;
+		for (int i = 0; i < position; i++) {
+			if (genome[i] < 0)
+				remaining[open++] = 2;
+			else {
+				while (open > 0 && --remaining[open - 1] == 0)
+					open--;
+			}
+		}
+		return open;
+	}
+
+	/**
+	 * Picks a random position in the genome, which is a service's with the
+	 * given probability (or if there are no composite nodes), and otherwise
+	 * a composite node's.
+	 */
+	public static int pickPoint(int[] genome, MersenneTwisterFast random, double terminalProbability) {
+		int composites = 0;
+		for (int gene : genome) {
+			if (gene < 0)
+				composites++;
+		}
+		boolean terminal = composites == 0 || random.nextBoolean(terminalProbability);
+		int n = random.nextInt(terminal ? genome.length - composites : composites);
+		for (int i = 0; i < genome.length; i++) {
+			if ((genome[i] >= 0) == terminal && n-- == 0)
+				return i;
+		}
+		throw new IllegalStateException("No position picked");
+	}
+
+	/**
+	 * Replaces the subtree of the given genome in [start, end) with the
+	 * subtree of the other genome in [from, to).
+	 */
+	public static int[] splice(int[] genome, int start, int end, int[] other, int from, int to) {
+		int[] result = new int[genome.length - (end - start) + (to - from)];
+		System.arraycopy(genome, 0, result, 0, start);
+		System.arraycopy(other, from, result, start, to - from);
+		System.arraycopy(genome, end, result, start + to - from, genome.length - end);
+		return result;
+	}
+
+	/**
+	 * Describes the composition as a Lisp-style expression, like WSC.toLisp
+	 * does for trees.
+	 */
+	public String toLisp(WSCInitializer init) {
+		StringBuilder s = new StringBuilder();
+		appendLisp(s, 0, init);
+		return s.toString();
+	}
+
+	private int appendLisp(StringBuilder s, int i, WSCInitializer init) {
+		int gene = genome[i];
+		if (gene >= 0) {
+			s.append(init.relevant.get(gene).getName());
+			return i + 1;
+		}
+		s.append(gene == SEQUENCE ? "(Sequence " : "(Parallel ");
+		i = appendLisp(s, i + 1, init);
+		s.append(' ');
+		i = appendLisp(s, i, init);
+		s.append(')');
+		return i;
+	}
+
+	@Override
+	public void printIndividualForHumans(final EvolutionState state, final int log) {
+		state.output.println(EVALUATED_PREAMBLE + Code.encode(evaluated), log);
+		fitness.printFitnessForHumans(state, log);
+		state.output.println(toLisp((WSCInitializer) state.initializer), log);
+	}
+
+	@Override
+	public String genotypeToString() {
+		StringBuilder s = new StringBuilder().append(genome.length);
+		for (int gene : genome)
+			s.append(' ').append(gene);
+		return s.toString();
+	}
+
+	@Override
+	protected void parseGenotype(final EvolutionState state, final LineNumberReader reader) throws IOException {
+		String line = reader.readLine();
+		if (line == null)
+			throw new IOException("No genome to read");
+		String[] values = line.trim().split("\\s+");
+		int[] g;
+		try {
+			g = new int[Integer.parseInt(values[0])];
+			for (int i = 0; i < g.length; i++)
+				g[i] = Integer.parseInt(values[i + 1]);
+		}
+		catch (RuntimeException e) {
+			throw new IOException("Malformed genome on line " + reader.getLineNumber() + ": " + e);
+		}
+		check(g, (WSCInitializer) state.initializer);
+		genome = g;
+	}
+
+	/**
+	 * Writes the genome as it is, since services are already positions in
+	 * the relevant service list (see ServiceNode.writeNode).
+	 */
+	@Override
+	public void writeGenotype(final EvolutionState state, final DataOutput dataOutput) throws IOException {
+		dataOutput.writeInt(genome.length);
+		for (int gene : genome)
+			dataOutput.writeInt(gene);
+	}
+
+	@Override
+	public void readGenotype(final EvolutionState state, final DataInput dataInput) throws IOException {
+		int length = dataInput.readInt();
+		if (length < 1)
+			throw new IOException("Malformed genome of length " + length);
+		int[] g = new int[length];
+		for (int i = 0; i < g.length; i++)
+			g[i] = dataInput.readInt();
+		check(g, (WSCInitializer) state.initializer);
+		genome = g;
+	}
+
+	// Checks that a genome read in is a whole tree, of services that are in the relevant service list
+	private static void check(int[] genome, WSCInitializer init) throws IOException {
+		int size = init.relevant.size();
+		// Subtrees still to come, which must not run out before the end
+		int needed = 1;
+		for (int i = 0; i < genome.length; i++) {
+			if (needed == 0)
+				throw new IOException("Malformed genome, with genes past the end of its tree at position " + i);
+			if (genome[i] >= size || genome[i] < PARALLEL)
+				throw new IOException("No relevant service at position " + genome[i] + ", the repository differs from the sender's");
+			needed += genome[i] < 0 ? 1 : -1;
+		}
+		if (needed != 0)
+			throw new IOException("Malformed genome, " + needed + " subtree(s) short of a whole tree");
+	}
+}
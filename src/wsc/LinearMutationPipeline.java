@@ -0,0 +1,96 @@
+package wsc;
+
+import ec.BreedingPipeline;
+import ec.EvolutionState;
+import ec.Individual;
+import ec.SelectionMethod;
+import ec.util.MersenneTwisterFast;
+import ec.util.Parameter;
+
+/**
+ * Subtree mutation for LinearIndividuals, which works like ECJ's
+ * MutationPipeline with GrowBuilder: a subtree is picked, a composite
+ * node's with probability 1 - terminals and otherwise a service's, and is
+ * replaced by a grown subtree no deeper than depth. The replacement is only
+ * made if the individual would not become deeper than maxdepth, and all of
+ * its sequences can run (see Feasibility, as in WSCMutationPipeline). This
+ * is retried up to the given number of tries.
+ */
+public class LinearMutationPipeline extends BreedingPipeline {
+	public static final String P_MUTATION = "mutate";
+	public static final String P_MAXDEPTH = "maxdepth";
+	public static final String P_TRIES = "tries";
+	public static final String P_TERMINALS = "terminals";
+	public static final String P_DEPTH = "depth";
+	public static final int NUM_SOURCES = 1;
+
+	public int maxDepth;
+	public int numTries;
+	public double terminalProbability;
+	public int depth;
+
+	@Override
+	public Parameter defaultBase() {
+		return LinearSpecies.base().push(P_MUTATION);
+	}
+
+	@Override
+	public int numSources() {
+		return NUM_SOURCES;
+	}
+
+	@Override
+	public void setup(final EvolutionState state, final Parameter base) {
+		super.setup(state, base);
+		Parameter def = defaultBase();
+
+		maxDepth = state.parameters.getInt(base.push(P_MAXDEPTH), def.push(P_MAXDEPTH), 1);
+		if (maxDepth < 1)
+			state.output.fatal("Mutation must have a maximum depth of at least 1", base.push(P_MAXDEPTH), def.push(P_MAXDEPTH));
+		numTries = state.parameters.getInt(base.push(P_TRIES), def.push(P_TRIES), 1);
+		if (numTries < 1)
+			state.output.fatal("Mutation must try at least once", base.push(P_TRIES), def.push(P_TRIES));
+		terminalProbability = state.parameters.getDoubleWithDefault(base.push(P_TERMINALS), def.push(P_TERMINALS), 0.1);
+		if (terminalProbability < 0.0 || terminalProbability > 1.0)
+			state.output.fatal("Terminal probability must be between 0 and 1", base.push(P_TERMINALS), def.push(P_TERMINALS));
+		depth = state.parameters.getIntWithDefault(base.push(P_DEPTH), def.push(P_DEPTH), 5);
+		if (depth < 1)
+			state.output.fatal("Mutation must grow subtrees of depth at least 1", base.push(P_DEPTH), def.push(P_DEPTH));
+	}
+
+	@Override
+	public int produce(final int min, final int max, final int start, final int subpopulation, final Individual[] inds,
+			final EvolutionState state, final int thread) {
+		// grab individuals from our source and stick 'em right into inds.
+		int n = sources[0].produce(min, max, start, subpopulation, inds, state, thread);
+
+		// should we bother?
+		if (!state.random[thread].nextBoolean(likelihood))
+			return reproduce(n, start, subpopulation, inds, state, thread, false);
+
+		MersenneTwisterFast random = state.random[thread];
+		WSCInitializer init = (WSCInitializer) state.initializer;
+		for (int q = start; q < n + start; q++) {
+			LinearIndividual ind = (LinearIndividual) inds[q];
+			int[] g = ind.genome;
+
+			int[] child = null;
+			boolean replace = false;
+			for (int x = 0; x < numTries && !replace; x++) {
+				int p = LinearIndividual.pickPoint(g, random, terminalProbability);
+				int[] subtree = ((LinearSpecies) ind.species).randomTree(state, thread, depth, true);
+				if (LinearIndividual.atDepth(g, p) + LinearIndividual.depth(subtree, 0) > maxDepth)
+					continue;
+				child = LinearIndividual.splice(g, p, LinearIndividual.subtreeEnd(g, p), subtree, 0, subtree.length);
+				replace = Feasibility.isFeasible(child, init);
+			}
+
+			if (replace)
+				inds[q] = ind.withGenome(child);
+			else if (sources[0] instanceof SelectionMethod)
+				// Individuals straight from the population must be copied
+				inds[q] = (Individual) ind.clone();
+		}
+		return n;
+	}
+}
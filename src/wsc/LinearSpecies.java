@@ -0,0 +1,113 @@
+package wsc;
+
+import java.util.Arrays;
+
+import ec.EvolutionState;
+import ec.Individual;
+import ec.Species;
+import ec.util.MersenneTwisterFast;
+import ec.util.Parameter;
+
+/**
+ * Species of LinearIndividuals. New individuals are built like
+ * HalfBuilder builds trees: each picks a depth between min-depth and
+ * max-depth, and is then either full, with services only at that depth, or
+ * grown, with each node above it equally likely to be a service, a
+ * Sequence or a Parallel (as GrowBuilder picks from the function set).
+ * Like WSCBuilder, each individual is rebuilt up to tries times until all of
+ * its sequences can run (see Feasibility), keeping the last one otherwise.
+ */
+public class LinearSpecies extends Species {
+	public static final String P_LINEAR = "linear";
+	public static final String P_SPECIES = "species";
+	public static final String P_MIN_DEPTH = "min-depth";
+	public static final String P_MAX_DEPTH = "max-depth";
+	public static final String P_GROW_PROBABILITY = "grow-probability";
+	public static final String P_TRIES = "tries";
+
+	public int minDepth;
+	public int maxDepth;
+	public double growProbability;
+	public int tries;
+
+	public static Parameter base() {
+		return new Parameter(P_LINEAR);
+	}
+
+	@Override
+	public Parameter defaultBase() {
+		return base().push(P_SPECIES);
+	}
+
+	@Override
+	public void setup(final EvolutionState state, final Parameter base) {
+		super.setup(state, base);
+		Parameter def = defaultBase();
+
+		if (!(i_prototype instanceof LinearIndividual))
+			state.output.fatal("Individual class must be " + LinearIndividual.class, base.push(P_INDIVIDUAL), def.push(P_INDIVIDUAL));
+
+		minDepth = state.parameters.getInt(base.push(P_MIN_DEPTH), def.push(P_MIN_DEPTH), 1);
+		if (minDepth < 1)
+			state.output.fatal("Minimum depth must be at least 1", base.push(P_MIN_DEPTH), def.push(P_MIN_DEPTH));
+		maxDepth = state.parameters.getInt(base.push(P_MAX_DEPTH), def.push(P_MAX_DEPTH), 1);
+		if (maxDepth < minDepth)
+			state.output.fatal("Maximum depth must be at least the minimum depth", base.push(P_MAX_DEPTH), def.push(P_MAX_DEPTH));
+		growProbability = state.parameters.getDoubleWithDefault(base.push(P_GROW_PROBABILITY), def.push(P_GROW_PROBABILITY), 0.5);
+		if (growProbability < 0.0 || growProbability > 1.0)
+			state.output.fatal("Grow probability must be between 0 and 1", base.push(P_GROW_PROBABILITY), def.push(P_GROW_PROBABILITY));
+		tries = state.parameters.getIntWithDefault(base.push(P_TRIES), def.push(P_TRIES), 1);
+		if (tries < 1)
+			state.output.fatal("Tries must be at least 1", base.push(P_TRIES), def.push(P_TRIES));
+	}
+
+	@Override
+	public Individual newIndividual(final EvolutionState state, final int thread) {
+		LinearIndividual ind = (LinearIndividual) super.newIndividual(state, thread);
+		MersenneTwisterFast random = state.random[thread];
+		WSCInitializer init = (WSCInitializer) state.initializer;
+		for (int t = 0; t < tries && (t == 0 || !Feasibility.isFeasible(ind.genome, init)); t++) {
+			int depth = minDepth + random.nextInt(maxDepth - minDepth + 1);
+			ind.genome = randomTree(state, thread, depth, random.nextBoolean(growProbability));
+		}
+		return ind;
+	}
+
+	/**
+	 * Builds a random tree no deeper than the given depth, either grown or
+	 * full.
+	 *
+	 * @return the tree's genome
+	 */
+	public int[] randomTree(EvolutionState state, int thread, int depth, boolean grow) {
+		Builder builder = new Builder(state.random[thread], ((WSCInitializer) state.initializer).relevant.size(), grow);
+		builder.build(depth);
+		return Arrays.copyOf(builder.genome, builder.size);
+	}
+
+	private static class Builder {
+		private final MersenneTwisterFast random;
+		private final int services;
+		private final boolean grow;
+		private int[] genome = new int[64];
+		private int size;
+
+		private Builder(MersenneTwisterFast random, int services, boolean grow) {
+			this.random = random;
+			this.services = services;
+			this.grow = grow;
+		}
+
+		private void build(int depth) {
+			if (size == genome.length)
+				genome = Arrays.copyOf(genome, size * 2);
+			if (depth == 1 || (grow && random.nextInt(3) == 0))
+				genome[size++] = random.nextInt(services);
+			else {
+				genome[size++] = random.nextBoolean() ? LinearIndividual.SEQUENCE : LinearIndividual.PARALLEL;
+				build(depth - 1);
+				build(depth - 1);
+			}
+		}
+	}
+}
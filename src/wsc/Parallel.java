@@ -1,51 +1,28 @@
 package wsc;
 
-import java.util.Set;
-
-import ec.EvolutionState;
-import ec.Problem;
-import ec.gp.ADFStack;
-import ec.gp.GPData;
-import ec.gp.GPIndividual;
-import ec.gp.GPNode;
-
-public class Parallel extends GPNode {
+public class Parallel extends CompositeNode {
 
 	@Override
-	public void eval(final EvolutionState state, final int thread, final GPData input, final ADFStack stack, final GPIndividual individual, final Problem problem) {
-		double[] qos;
-		Set<String> inputs;
-		Set<String> outputs;
-		int totalInputs;
-		int satisfiedInputs;
-
-		WSCData rd = ((WSCData) (input));
-
-		children[0].eval(state, thread, input, stack, individual, problem);
-		qos = rd.qos;
-		inputs = rd.inputs;
-		outputs = rd.outputs;
-		totalInputs = rd.totalInputs;
-		satisfiedInputs = rd.satisfiedInputs;
-
-		children[1].eval(state, thread, input, stack, individual, problem);
-		rd.qos[WSCInitializer.TIME] = Math.max(rd.qos[WSCInitializer.TIME], qos[WSCInitializer.TIME]);
-		rd.qos[WSCInitializer.COST] += qos[WSCInitializer.COST];
-		rd.qos[WSCInitializer.AVAILABILITY] *= rd.qos[WSCInitializer.AVAILABILITY];
-		rd.qos[WSCInitializer.RELIABILITY] *= rd.qos[WSCInitializer.RELIABILITY];
-		rd.inputs.addAll(inputs);
-		rd.outputs.addAll(outputs);
-		rd.totalInputs += totalInputs;
-		rd.satisfiedInputs += satisfiedInputs;
+	public void combine(final WSCData rd, final WSCInitializer init) {
+		int left = rd.frame;
+		int right = left + 1;
+
+		double[] qos = rd.qos;
+		int l = left * WSCData.QOS_SIZE;
+		int r = right * WSCData.QOS_SIZE;
+		qos[l + WSCInitializer.TIME] = Math.max(qos[l + WSCInitializer.TIME], qos[r + WSCInitializer.TIME]);
+		qos[l + WSCInitializer.COST] += qos[r + WSCInitializer.COST];
+		qos[l + WSCInitializer.AVAILABILITY] *= qos[r + WSCInitializer.AVAILABILITY];
+		qos[l + WSCInitializer.RELIABILITY] *= qos[r + WSCInitializer.RELIABILITY];
+
+		rd.inputs[left].or(rd.inputs[right]);
+		rd.outputs[left].or(rd.outputs[right]);
+		rd.totalInputs[left] += rd.totalInputs[right];
+		rd.satisfiedInputs[left] += rd.satisfiedInputs[right];
 	}
 
 	@Override
 	public String toString() {
 		return "Parallel";
 	}
-
-	@Override
-	public int expectedChildren() {
-		return 2;
-	}
 }
@@ -0,0 +1,54 @@
+package wsc;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Fork-join loop over a range of indices: the range is split in halves
+ * until the pieces are small enough to be run directly. The body must be
+ * safe to run for different indices at the same time.
+ */
+class ParallelLoop extends RecursiveAction {
+	private static final long serialVersionUID = 1L;
+	// Iterations run directly rather than split further
+	private static final int GRAIN = 64;
+
+	interface Body {
+		void run(int i);
+	}
+
+	private final Body body;
+	private final int from;
+	private final int to;
+
+	private ParallelLoop(Body body, int from, int to) {
+		this.body = body;
+		this.from = from;
+		this.to = to;
+	}
+
+	/**
+	 * Runs the body for every index from 0 (inclusive) to size (exclusive)
+	 * in the given pool, returning once all have run.
+	 *
+	 * @param pool
+	 * @param size
+	 * @param body
+	 */
+	static void run(ForkJoinPool pool, int size, Body body) {
+		if (size > 0)
+			pool.invoke(new ParallelLoop(body, 0, size));
+	}
+
+	@Override
+	protected void compute() {
+		if (to - from <= GRAIN) {
+			for (int i = from; i < to; i++)
+				body.run(i);
+		}
+		else {
+			int middle = (from + to) >>> 1;
+			invokeAll(new ParallelLoop(body, from, middle), new ParallelLoop(body, middle, to));
+		}
+	}
+}
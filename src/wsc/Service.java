@@ -1,17 +1,19 @@
 package wsc;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
-import java.util.Set;
 
 public class Service {
 	public List<TaxonomyNode> taxonomyOutputs = new ArrayList<TaxonomyNode>();
 	public String name;
 	public double[] qos;
-	public Set<String> inputs;
-	public Set<String> outputs;
+	// Input and output concepts, indexed by taxonomy node ID
+	public BitSet inputs;
+	public BitSet outputs;
+	private SubtreeMemo memo;
 
-	public Service(String name, double[] qos, Set<String> inputs, Set<String> outputs) {
+	public Service(String name, double[] qos, BitSet inputs, BitSet outputs) {
 		this.name = name;
 		this.qos = qos;
 		this.inputs = inputs;
@@ -22,11 +24,11 @@ public class Service {
 		return qos;
 	}
 
-	public Set<String> getInputs() {
+	public BitSet getInputs() {
 		return inputs;
 	}
 
-	public Set<String> getOutputs() {
+	public BitSet getOutputs() {
 		return outputs;
 	}
 
@@ -34,6 +36,22 @@ public class Service {
 		return name;
 	}
 
+	/**
+	 * Gets the result of evaluating this service on its own, used as the
+	 * starting point of memoised tree evaluation. Threads racing to create
+	 * it may each end up with their own (equal) memo, which is harmless.
+	 *
+	 * @return memo for this service
+	 */
+	public SubtreeMemo getMemo() {
+		SubtreeMemo m = memo;
+		if (m == null) {
+			m = new SubtreeMemo(this);
+			memo = m;
+		}
+		return m;
+	}
+
 	public List<TaxonomyNode> getTaxonomyOutputs() {
 		return taxonomyOutputs;
 	}
@@ -1,36 +1,67 @@
 package wsc;
 
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
 
 import ec.EvolutionState;
 import ec.Problem;
-import ec.app.tutorial4.MultiValuedRegression;
 import ec.gp.ADFStack;
 import ec.gp.GPData;
 import ec.gp.GPIndividual;
 import ec.gp.GPNode;
-import ec.util.MersenneTwisterFast;
-import wsc.TaxonomyNode;
 
 public class ServiceNode extends GPNode {
 	private Service service;
 
+	/**
+	 * Picks the node's service when the node is created by a tree builder,
+	 * so that evaluation never touches the random number generators and
+	 * individuals can be evaluated by any thread.
+	 */
+	@Override
+	public void resetNode(final EvolutionState state, final int thread) {
+		service = ((WSCInitializer)state.initializer).getRandomService(state.random[thread]);
+	}
+
+	public Service getService() {
+		return service;
+	}
+
+	/**
+	 * Sets the node's service, for builders that choose the services
+	 * themselves rather than leaving it to resetNode.
+	 *
+	 * @param service
+	 */
+	public void setService(Service service) {
+		this.service = service;
+	}
+
 	public void eval(final EvolutionState state, final int thread, final GPData input, final ADFStack stack, final GPIndividual individual, final Problem problem) {
-		if (service == null) {
-			MersenneTwisterFast m = state.random[thread];
-			service = ((WSCInitializer)state.initializer).getRandomService(m);
-		}
+		// Copy the service's values, so that composite nodes never modify the service itself
+		((WSCData) (input)).load(service);
+	}
 
-		WSCData rd = ((WSCData) (input));
-		rd.qos = service.qos;
-		rd.inputs.addAll(service.inputs);
-		rd.outputs.addAll(service.outputs);
-		rd.totalInputs = service.inputs.size();
-		rd.satisfiedInputs = service.inputs.size();
+	/**
+	 * Writes the node's service as its position in the relevant service
+	 * list, which is all that is needed to send it to another island.
+	 * Islands must therefore share the same repository files (and, since
+	 * it fixes the order of the relevant services, ideally the snapshot).
+	 */
+	@Override
+	public void writeNode(final EvolutionState state, final DataOutput dataOutput) throws IOException {
+		dataOutput.writeInt(((WSCInitializer) state.initializer).serviceToIndexMap.get(service.getName()));
+	}
+
+	@Override
+	public void readNode(final EvolutionState state, final DataInput dataInput) throws IOException {
+		List<Service> relevant = ((WSCInitializer) state.initializer).relevant;
+		int index = dataInput.readInt();
+		if (index < 0 || index >= relevant.size())
+			throw new IOException("No relevant service at position " + index + ", the repository differs from the sender's");
+		service = relevant.get(index);
 	}
 
 	@Override
@@ -46,6 +77,16 @@ public class ServiceNode extends GPNode {
 		return 0;
 	}
 
+	@Override
+	public int nodeHashCode() {
+		return super.nodeHashCode() ^ hashCode();
+	}
+
+	@Override
+	public boolean nodeEquals(GPNode node) {
+		return equals(node);
+	}
+
 	@Override
 	public int hashCode() {
 		return service.name.hashCode();
@@ -0,0 +1,107 @@
+package wsc;
+
+import java.util.BitSet;
+
+import ec.gp.GPNode;
+
+/**
+ * Immutable result of evaluating a subtree: its aggregated QoS, input and
+ * output concepts, and input counts. Each CompositeNode keeps the memo of
+ * its last evaluation together with the memos of its children it was built
+ * from. Cloning a tree during breeding copies these references, so after
+ * crossover or mutation only the nodes on the path to the modified subtree
+ * find that one of their children's memos has changed and need to merge
+ * their children again; all other subtrees are reused as they are.
+ */
+public class SubtreeMemo {
+	public final double[] qos;
+	public final BitSet inputs;
+	public final BitSet outputs;
+	public final int totalInputs;
+	public final int satisfiedInputs;
+	// Children's memos this memo was computed from, null for services
+	public final SubtreeMemo left;
+	public final SubtreeMemo right;
+
+	/**
+	 * Creates the memo for a single service.
+	 *
+	 * @param service
+	 */
+	public SubtreeMemo(Service service) {
+		qos = new double[WSCData.QOS_SIZE];
+		System.arraycopy(service.qos, 0, qos, 0, WSCData.QOS_SIZE);
+		inputs = service.inputs;
+		outputs = service.outputs;
+		totalInputs = service.inputs.cardinality();
+		satisfiedInputs = totalInputs;
+		left = null;
+		right = null;
+	}
+
+	/**
+	 * Creates a memo from the current frame of the given data.
+	 *
+	 * @param rd
+	 * @param left
+	 * @param right
+	 */
+	public SubtreeMemo(WSCData rd, SubtreeMemo left, SubtreeMemo right) {
+		int f = rd.frame;
+		qos = new double[WSCData.QOS_SIZE];
+		System.arraycopy(rd.qos, f * WSCData.QOS_SIZE, qos, 0, WSCData.QOS_SIZE);
+		inputs = (BitSet) rd.inputs[f].clone();
+		outputs = (BitSet) rd.outputs[f].clone();
+		totalInputs = rd.totalInputs[f];
+		satisfiedInputs = rd.satisfiedInputs[f];
+		this.left = left;
+		this.right = right;
+	}
+
+	/**
+	 * Writes this memo into the current frame of the given data.
+	 *
+	 * @param rd
+	 */
+	public void load(WSCData rd) {
+		int f = rd.frame;
+		System.arraycopy(qos, 0, rd.qos, f * WSCData.QOS_SIZE, WSCData.QOS_SIZE);
+		rd.inputs[f].clear();
+		rd.inputs[f].or(inputs);
+		rd.outputs[f].clear();
+		rd.outputs[f].or(outputs);
+		rd.totalInputs[f] = totalInputs;
+		rd.satisfiedInputs[f] = satisfiedInputs;
+	}
+
+	/**
+	 * Evaluates the subtree rooted at the given node, reusing the memos of
+	 * all subtrees whose children are unchanged since they were last
+	 * evaluated. The data is only used as scratch space for merging.
+	 *
+	 * @param node
+	 * @param rd
+	 * @param init
+	 * @return memo of the subtree
+	 */
+	public static SubtreeMemo evaluate(GPNode node, WSCData rd, WSCInitializer init) {
+		if (node instanceof ServiceNode)
+			return ((ServiceNode) node).getService().getMemo();
+
+		CompositeNode composite = (CompositeNode) node;
+		SubtreeMemo l = evaluate(composite.children[0], rd, init);
+		SubtreeMemo r = evaluate(composite.children[1], rd, init);
+
+		SubtreeMemo memo = composite.memo;
+		if (memo == null || memo.left != l || memo.right != r) {
+			l.load(rd);
+			rd.push();
+			r.load(rd);
+			rd.pop();
+			composite.combine(rd, init);
+			memo = new SubtreeMemo(rd, l, r);
+			composite.memo = memo;
+		}
+		return memo;
+	}
+}
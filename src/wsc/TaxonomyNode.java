@@ -1,6 +1,7 @@
 package wsc;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -14,15 +15,33 @@ import java.util.Set;
  * @author sawczualex
  */
 public class TaxonomyNode {
-	public Set<String> serviceOutputs = new HashSet<String>();
 	public String value;
 	public List<TaxonomyNode> parents = new ArrayList<TaxonomyNode>();
 	public List<TaxonomyNode> children = new ArrayList<TaxonomyNode>();
+	// Pre-order number of this node and of the last node in its subtree
+	public int id = -1;
+	public int lastDescendant = -1;
+	// Only built when the taxonomy is not a tree (i.e. some node has several parents)
+	public BitSet descendants;
 
 	public TaxonomyNode(String value) {
 		this.value = value;
 	}
 
+	/**
+	 * Checks whether the given node is subsumed by this node (i.e. it
+	 * is this node or one of its descendants). Relies on the subsumption
+	 * index built by WSCInitializer after parsing the taxonomy.
+	 *
+	 * @param other
+	 * @return true if other is in this node's subtree, false otherwise
+	 */
+	public boolean subsumes(TaxonomyNode other) {
+		if (descendants != null)
+			return descendants.get(other.id);
+		return other.id >= id && other.id <= lastDescendant;
+	}
+
 	/**
 	 * Gets all concepts subsumed by this node (i.e. all
 	 * concepts in its subtree).
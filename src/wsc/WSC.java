@@ -1,17 +1,37 @@
 package wsc;
 
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
+import java.util.Arrays;
+import java.util.BitSet;
 
 import ec.util.*;
 import ec.*;
 import ec.gp.*;
 import ec.gp.koza.*;
+import ec.multiobjective.MultiObjectiveFitness;
 import ec.simple.*;
 
 public class WSC extends GPProblem implements
 		SimpleProblemForm {
+	public static final String P_CACHE_SIZE = "cache-size";
+	public static final String P_MEMOIZE = "memoize";
+	public static final String P_ENGINE = "engine";
+	public static final String V_TREE = "tree";
+	public static final String V_GRAPH = "graph";
+
+	// Shared by all clones of the problem; null if caching is disabled
+	public FitnessCache cache;
+	// Whether to reuse the results of subtrees left unchanged by breeding
+	public boolean memoize;
+	// Flattened form of the tree being evaluated; null if trees are evaluated recursively
+	public CompositionGraph graph;
+	// Whether fitness is left for WSCEvaluator to score in one batch per population
+	public boolean batch;
+	// Scratch space for scoring a single individual
+	private double[] components = new double[WSCFitness.COMPONENTS];
+	private double[][] columns = new double[WSCFitness.COMPONENTS][1];
+	private double[] fitness = new double[1];
+	// Open composite nodes while evaluating linear genomes
+	private int[] open = new int[64];
 
 	public void setup(final EvolutionState state, final Parameter base) {
 		// very important, remember this
@@ -21,80 +41,256 @@ public class WSC extends GPProblem implements
 		if (!(input instanceof WSCData))
 			state.output.fatal("GPData class must subclass from "
 					+ WSCData.class, base.push(P_DATA), null);
+
+		int cacheSize = state.parameters.getIntWithDefault(base.push(P_CACHE_SIZE), null, 0);
+		if (cacheSize > 0)
+			cache = new FitnessCache(cacheSize);
+		memoize = state.parameters.getBoolean(base.push(P_MEMOIZE), null, false);
+
+		String engine = state.parameters.getStringWithDefault(base.push(P_ENGINE), null, V_TREE);
+		if (engine.equals(V_GRAPH)) {
+			graph = new CompositionGraph();
+			if (memoize)
+				state.output.warning("Subtree memoisation only applies to the " + V_TREE + " engine", base.push(P_MEMOIZE), null);
+		}
+		else if (!engine.equals(V_TREE))
+			state.output.fatal("Evaluation engine must be " + V_TREE + " or " + V_GRAPH, base.push(P_ENGINE), null);
+	}
+
+	@Override
+	public Object clone() {
+		// Every evaluation thread works on its own clone, so give each one its own scratch data
+		WSC other = (WSC) super.clone();
+		other.input = (GPData) input.clone();
+		if (graph != null)
+			other.graph = new CompositionGraph();
+		other.components = new double[WSCFitness.COMPONENTS];
+		other.columns = new double[WSCFitness.COMPONENTS][1];
+		other.fitness = new double[1];
+		other.open = new int[64];
+		return other;
 	}
 
 	public void evaluate(final EvolutionState state, final Individual ind, final int subpopulation, final int threadnum) {
 		if (!ind.evaluated) {
 			WSCInitializer init = (WSCInitializer) state.initializer;
-			WSCData input = (WSCData) (this.input);
-
-			((GPIndividual) ind).trees[0].child.eval(state, threadnum, input, stack, ((GPIndividual) ind), this);
-			double[] qos = input.qos;
-			Set<String> inputs = input.inputs;
-			Set<String> outputs = input.outputs;
+			double[] components = this.components;
+			if (ind.fitness instanceof WSCFitness)
+				components = ((WSCFitness) ind.fitness).components;
 
-			double satisfiedInputs = input.satisfiedInputs;
-			double totalInputs = input.totalInputs;
-			double overallInputs = inputs.size();
-			double overallSatisfiedInputs = init.countInputsSatisfied(init.taskInput, inputs);
-			double overallOutputs = init.taskOutput.size();
-			double overallSatisfiedOutputs = init.countInputsSatisfied(outputs, init.taskOutput);
+			// Structurally identical trees have already been evaluated
+			if (cache != null) {
+				FitnessCache.Key key;
+				if (ind instanceof LinearIndividual)
+					key = cache.keyFor(((LinearIndividual) ind).genome, init);
+				else
+					key = cache.keyFor(((GPIndividual) ind).trees[0].child, init);
+				if (!cache.get(key, components)) {
+					aggregate(state, ind, threadnum, init, components);
+					cache.put(key, components);
+				}
+			}
+			else
+				aggregate(state, ind, threadnum, init, components);
 
+			// When batched, the evaluator scores the whole population once it has been aggregated
+			if (!batch) {
+				for (int c = 0; c < WSCFitness.COMPONENTS; c++)
+					columns[c][0] = components[c];
+				if (ind.fitness instanceof MultiObjectiveFitness) {
+					// Each component is an objective of its own
+					MultiObjectiveFitness f = (MultiObjectiveFitness) ind.fitness;
+					double[] objectives = f.getObjectives();
+					if (objectives.length != WSCFitness.COMPONENTS)
+						state.output.fatal("Multi-objective fitness must have " + WSCFitness.COMPONENTS + " objectives");
+					normalise(columns, 1, init);
+					for (int c = 0; c < WSCFitness.COMPONENTS; c++)
+						objectives[c] = columns[c][0];
+					toObjectives(objectives);
+					f.setObjectives(state, objectives);
+				}
+				else {
+					score(columns, 1, fitness, init);
+					// the fitness better be SimpleFitness!
+					((SimpleFitness) ind.fitness).setFitness(state, fitness[0], false);
+				}
+			}
+			ind.evaluated = true;
+		}
+	}
 
-			double fitness = calculateFitness(qos[WSCInitializer.AVAILABILITY], qos[WSCInitializer.RELIABILITY], qos[WSCInitializer.TIME], qos[WSCInitializer.COST],
-					overallSatisfiedInputs/overallInputs, overallSatisfiedOutputs/overallOutputs, satisfiedInputs/totalInputs, init);
+	/**
+	 * Maps the components of a composition, with its QoS already normalised,
+	 * into objectives between 0 and 1. Inputs and outputs are fully
+	 * satisfied when there are none to satisfy, rather than 0/0. Connections
+	 * count each service's own inputs as satisfied, so they are shifted down
+	 * by 1 (to the inputs satisfied by other services, per input) and capped
+	 * at 1.
+	 */
+	static void toObjectives(double[] objectives) {
+		if (Double.isNaN(objectives[WSCFitness.INPUTS]))
+			objectives[WSCFitness.INPUTS] = 1.0;
+		if (Double.isNaN(objectives[WSCFitness.OUTPUTS]))
+			objectives[WSCFitness.OUTPUTS] = 1.0;
+		double connections = objectives[WSCFitness.CONNECTIONS] - 1.0;
+		objectives[WSCFitness.CONNECTIONS] = Double.isNaN(connections) ? 0.0 : Math.max(0.0, Math.min(1.0, connections));
+	}
 
-			// the fitness better be SimpleFitness!
-			SimpleFitness f = ((SimpleFitness) ind.fitness);
-			f.setFitness(state, fitness, false);
-			//f.setStandardizedFitness(state, fitness);
-			ind.evaluated = true;
+	/**
+	 * Evaluates the individual's tree (or linear genome) and writes the raw
+	 * fitness components of the composition it describes into the given
+	 * array.
+	 */
+	private void aggregate(EvolutionState state, Individual ind, int threadnum, WSCInitializer init, double[] components) {
+		double[] qos;
+		BitSet inputs;
+		BitSet outputs;
+		double satisfiedInputs;
+		double totalInputs;
+		if (ind instanceof LinearIndividual) {
+			LinearIndividual linear = (LinearIndividual) ind;
+			if (open.length < linear.genome.length)
+				open = new int[Math.max(linear.genome.length, open.length * 2)];
+			WSCData input = (WSCData) (this.input);
+			linear.evaluate(input, init, open);
+			qos = input.qos;
+			inputs = input.inputs[0];
+			outputs = input.outputs[0];
+			satisfiedInputs = input.satisfiedInputs[0];
+			totalInputs = input.totalInputs[0];
+		}
+		else if (graph != null) {
+			GPNode root = ((GPIndividual) ind).trees[0].child;
+			graph.evaluate(root, init);
+			qos = graph.resultQos;
+			inputs = graph.resultInputs;
+			outputs = graph.resultOutputs;
+			satisfiedInputs = graph.resultSatisfiedInputs;
+			totalInputs = graph.resultTotalInputs;
 		}
+		else {
+			// The result of the whole tree is left in frame 0
+			GPNode root = ((GPIndividual) ind).trees[0].child;
+			WSCData input = (WSCData) (this.input);
+			input.reset();
+			if (memoize)
+				SubtreeMemo.evaluate(root, input, init).load(input);
+			else
+				root.eval(state, threadnum, input, stack, (GPIndividual) ind, this);
+			qos = input.qos;
+			inputs = input.inputs[0];
+			outputs = input.outputs[0];
+			satisfiedInputs = input.satisfiedInputs[0];
+			totalInputs = input.totalInputs[0];
+		}
+		double overallInputs = inputs.cardinality();
+		double overallSatisfiedInputs = init.countInputsSatisfied(init.taskInput, inputs);
+		double overallOutputs = init.taskOutput.cardinality();
+		double overallSatisfiedOutputs = init.countInputsSatisfied(outputs, init.taskOutput);
+
+		components[WSCFitness.AVAILABILITY] = qos[WSCInitializer.AVAILABILITY];
+		components[WSCFitness.RELIABILITY] = qos[WSCInitializer.RELIABILITY];
+		components[WSCFitness.TIME] = qos[WSCInitializer.TIME];
+		components[WSCFitness.COST] = qos[WSCInitializer.COST];
+		components[WSCFitness.INPUTS] = overallSatisfiedInputs / overallInputs;
+		components[WSCFitness.OUTPUTS] = overallSatisfiedOutputs / overallOutputs;
+		components[WSCFitness.CONNECTIONS] = satisfiedInputs / totalInputs;
 	}
 
-	private double calculateFitness(double a, double r, double t, double c, double i, double o, double p, WSCInitializer init) {
-		a = normaliseAvailability(a, init);
-		r = normaliseReliability(r, init);
-		t = normaliseTime(t, init);
-		c = normaliseCost(c, init);
+	/**
+	 * Computes the fitness of a batch of compositions from their raw
+	 * components, given as one column per component. The QoS columns are
+	 * normalised in place, each in a single loop over the batch, and the
+	 * weighted sums are then written to the fitness array.
+	 *
+	 * @param columns components, indexed by WSCFitness component and then by composition
+	 * @param size number of compositions in the batch
+	 * @param fitness receives the fitness of each composition
+	 * @param init
+	 */
+	public static void score(double[][] columns, int size, double[] fitness, WSCInitializer init) {
+		normalise(columns, size, init);
 
-		double fitness = ((init.w1 * a) + (init.w2 * r) + (init.w3 * t) + (init.w4 * c)) + (init.w5 * i + init.w6 * o + init.w7 * p);
-		return fitness;
+		double[] a = columns[WSCFitness.AVAILABILITY];
+		double[] r = columns[WSCFitness.RELIABILITY];
+		double[] t = columns[WSCFitness.TIME];
+		double[] c = columns[WSCFitness.COST];
+		double[] i = columns[WSCFitness.INPUTS];
+		double[] o = columns[WSCFitness.OUTPUTS];
+		double[] p = columns[WSCFitness.CONNECTIONS];
+		double w1 = init.w1, w2 = init.w2, w3 = init.w3, w4 = init.w4, w5 = init.w5, w6 = init.w6, w7 = init.w7;
+		for (int k = 0; k < size; k++)
+			fitness[k] = ((w1 * a[k]) + (w2 * r[k]) + (w3 * t[k]) + (w4 * c[k])) + (w5 * i[k] + w6 * o[k] + w7 * p[k]);
 	}
 
-	private double normaliseAvailability(double availability, WSCInitializer init) {
-		if (init.maxAvailability - init.minAvailability == 0.0)
-			return 1.0;
-		else
-			return (availability - init.minAvailability)/(init.maxAvailability - init.minAvailability);
+	/**
+	 * Normalises the QoS columns of a batch of raw components in place, so
+	 * that every component lies between 0 and 1, with higher being better.
+	 */
+	public static void normalise(double[][] columns, int size, WSCInitializer init) {
+		normaliseUp(columns[WSCFitness.AVAILABILITY], size, init.minAvailability, init.maxAvailability);
+		normaliseUp(columns[WSCFitness.RELIABILITY], size, init.minReliability, init.maxReliability);
+		normaliseDown(columns[WSCFitness.TIME], size, init.minTime, init.maxTime);
+		normaliseDown(columns[WSCFitness.COST], size, init.minCost, init.maxCost);
 	}
 
-	private double normaliseReliability(double reliability, WSCInitializer init) {
-		if (init.maxReliability - init.minReliability == 0.0)
-			return 1.0;
-		else
-			return (reliability - init.minReliability)/(init.maxReliability - init.minReliability);
+	/**
+	 * Computes the fitness of a batch of normalised components under the
+	 * given weights, one per component, rather than those of the run.
+	 */
+	public static void weigh(double[][] columns, int size, double[] fitness, double[] weights) {
+		Arrays.fill(fitness, 0, size, 0.0);
+		for (int c = 0; c < WSCFitness.COMPONENTS; c++) {
+			double w = weights[c];
+			double[] column = columns[c];
+			for (int k = 0; k < size; k++)
+				fitness[k] += w * column[k];
+		}
 	}
 
-	private double normaliseTime(double time, WSCInitializer init) {
-		// If the time happens to go beyond the normalisation bound, set it to the normalisation bound
-		if (time > init.maxTime)
-			time = init.maxTime;
+	/**
+	 * Describes an individual's composition as a Lisp-style expression.
+	 */
+	public static String toLisp(Individual ind, WSCInitializer init) {
+		if (ind instanceof LinearIndividual)
+			return ((LinearIndividual) ind).toLisp(init);
+		return toLisp(((GPIndividual) ind).trees[0].child);
+	}
 
-		if (init.maxTime - init.minTime == 0.0)
-			return 1.0;
-		else
-			return (init.maxTime - time)/(init.maxTime - init.minTime);
+	/**
+	 * Describes a tree as a Lisp-style expression.
+	 */
+	public static String toLisp(GPNode node) {
+		if (node.children.length == 0)
+			return node.toString();
+		StringBuilder s = new StringBuilder("(").append(node.toString());
+		for (GPNode child : node.children)
+			s.append(' ').append(toLisp(child));
+		return s.append(')').toString();
 	}
 
-	private double normaliseCost(double cost, WSCInitializer init) {
-		// If the cost happens to go beyond the normalisation bound, set it to the normalisation bound
-		if (cost > init.maxCost)
-			cost = init.maxCost;
+	// Normalises values where higher is better, such as availability and reliability
+	private static void normaliseUp(double[] values, int size, double min, double max) {
+		double range = max - min;
+		if (range == 0.0)
+			Arrays.fill(values, 0, size, 1.0);
+		else {
+			for (int k = 0; k < size; k++)
+				values[k] = (values[k] - min) / range;
+		}
+	}
 
-		if (init.maxCost - init.minCost == 0.0)
-			return 1.0;
-		else
-			return (init.maxCost - cost)/(init.maxCost - init.minCost);
+	// Normalises values where lower is better, such as time and cost. Values
+	// beyond the normalisation bound are set to the bound.
+	private static void normaliseDown(double[] values, int size, double min, double max) {
+		double range = max - min;
+		if (range == 0.0)
+			Arrays.fill(values, 0, size, 1.0);
+		else {
+			for (int k = 0; k < size; k++) {
+				double v = values[k] > max ? max : values[k];
+				values[k] = (max - v) / range;
+			}
+		}
 	}
-}
\ No newline at end of file
+}
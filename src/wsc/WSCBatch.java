@@ -0,0 +1,184 @@
+package wsc;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import ec.EvolutionState;
+import ec.Evolve;
+import ec.Individual;
+import ec.simple.SimpleStatistics;
+import ec.util.Parameter;
+import ec.util.ParameterDatabase;
+
+/**
+ * Runs the GP for each of a batch of composition tasks against the same
+ * service repository, which is loaded and preprocessed only once. Each run
+ * then only loads its task, finds its relevant services and computes its
+ * normalisation bounds. Runs proceed concurrently, sharing the cores between
+ * them, and a line is added to the results file as each one finishes.
+ *
+ * Usage: java wsc.WSCBatch [-file params] [-results file] [-threads n]
+ * [-p name=value ...] task ..., where each task is a task file, a directory
+ * whose .xml files are all task files, or - to read task file names from
+ * standard input, one per line. The parameters default to wsc.params, and
+ * the number of concurrent runs to the number of cores. Each run writes its
+ * statistics next to the results file, named after the run's number.
+ *
+ * A run whose task can't be read or solved is recorded in the results file
+ * with its error, and the batch carries on. Errors in the parameters file or
+ * the -p overrides are still fatal to the whole batch, as ECJ's setup exits
+ * on them.
+ */
+public class WSCBatch {
+	// Parameters of every run, apart from the task and where its statistics go
+	private final File paramsFile;
+	private final String[] overrides;
+	private final File statDir;
+	// Evaluation and breeding threads per run, so that the runs share the cores
+	private final int runThreads;
+	private final PrintWriter results;
+
+	private WSCBatch(File paramsFile, String[] overrides, File resultsFile, int threads) throws IOException {
+		this.paramsFile = paramsFile;
+		this.overrides = overrides;
+		statDir = resultsFile.getAbsoluteFile().getParentFile();
+		runThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / threads);
+		results = new PrintWriter(new FileWriter(resultsFile));
+		results.println("run,task,fitness,generations,seconds,error");
+		results.flush();
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException, ExecutionException {
+		File paramsFile = new File("wsc.params");
+		File resultsFile = new File("results.csv");
+		int threads = Runtime.getRuntime().availableProcessors();
+		List<String> overrides = new ArrayList<String>();
+		List<String> tasks = new ArrayList<String>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-file") && i + 1 < args.length)
+				paramsFile = new File(args[++i]);
+			else if (args[i].equals("-results") && i + 1 < args.length)
+				resultsFile = new File(args[++i]);
+			else if (args[i].equals("-threads") && i + 1 < args.length)
+				threads = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-p") && i + 1 < args.length) {
+				overrides.add(args[i]);
+				overrides.add(args[++i]);
+			}
+			else
+				tasks.add(args[i]);
+		}
+		if (tasks.isEmpty() || threads < 1) {
+			System.err.println("Usage: java wsc.WSCBatch [-file params] [-results file] [-threads n] [-p name=value ...] task ...");
+			System.exit(1);
+		}
+
+		String[] pairs = overrides.toArray(new String[overrides.size()]);
+		ParameterDatabase parameters = new ParameterDatabase(paramsFile, pairs);
+		WSCInitializer.shareRepository(parameters.getString(new Parameter("composition-services"), null),
+				parameters.getString(new Parameter("composition-taxonomy"), null), Runtime.getRuntime().availableProcessors());
+
+		WSCBatch batch = new WSCBatch(paramsFile, pairs, resultsFile, threads);
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		int run = 0;
+		for (String task : tasks) {
+			if (task.equals("-")) {
+				// Runs start as soon as their names arrive
+				BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+				for (String line = in.readLine(); line != null; line = in.readLine()) {
+					if (!line.trim().isEmpty())
+						batch.submit(pool, run++, new File(line.trim()));
+				}
+			}
+			else if (new File(task).isDirectory()) {
+				File[] files = new File(task).listFiles();
+				Arrays.sort(files);
+				for (File f : files) {
+					if (f.isFile() && f.getName().endsWith(".xml"))
+						batch.submit(pool, run++, f);
+				}
+			}
+			else
+				batch.submit(pool, run++, new File(task));
+		}
+		pool.shutdown();
+		pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+		batch.results.close();
+	}
+
+	private void submit(ExecutorService pool, final int run, final File task) {
+		pool.execute(new Runnable() {
+			@Override
+			public void run() {
+				solve(run, task);
+			}
+		});
+	}
+
+	/**
+	 * Runs the GP for a single task, and reports the best individual of the
+	 * run, or why the run failed, in the results file.
+	 */
+	private void solve(int run, File task) {
+		long start = System.nanoTime();
+		double fitness = Double.NaN;
+		int generations = 0;
+		String error = "";
+		try {
+			ParameterDatabase db = new ParameterDatabase(paramsFile, overrides);
+			db.set(new Parameter("composition-task"), task.getPath());
+			db.set(new Parameter("stat.file"), new File(statDir, run + ".stat").getPath());
+			db.set(new Parameter("evalthreads"), Integer.toString(runThreads));
+			db.set(new Parameter("breedthreads"), Integer.toString(runThreads));
+			// ECJ only derives the other threads' seeds itself when the thread counts are auto
+			String seed = db.getString(new Parameter("seed").push("0"), null);
+			for (int x = 1; x < runThreads && seed != null; x++) {
+				Parameter p = new Parameter("seed").push("" + x);
+				if (db.getString(p, null) == null)
+					db.set(p, seed.trim().equalsIgnoreCase("time") ? seed : Integer.toString(Integer.parseInt(seed.trim()) + x));
+			}
+
+			EvolutionState state = Evolve.initialize(db, 0);
+			try {
+				state.startFresh();
+				int result = EvolutionState.R_NOTDONE;
+				while (result == EvolutionState.R_NOTDONE)
+					result = state.evolve();
+				state.finish(result);
+
+				Individual best = ((SimpleStatistics) state.statistics).best_of_run[0];
+				fitness = best.fitness.fitness();
+				generations = state.generation;
+			}
+			finally {
+				Evolve.cleanup(state);
+			}
+		}
+		catch (IOException e) {
+			error = e.toString();
+		}
+		catch (RuntimeException e) {
+			error = e.toString();
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		synchronized (results) {
+			results.println(run + "," + task.getPath() + "," + fitness + "," + generations + "," + String.format(Locale.US, "%.3f", seconds) + ","
+					+ error.replace(',', ';').replace('\n', ' '));
+			results.flush();
+		}
+	}
+}
@@ -0,0 +1,257 @@
+package wsc;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import ec.EvolutionState;
+import ec.gp.GPDefaults;
+import ec.gp.GPFunctionSet;
+import ec.gp.GPNode;
+import ec.gp.GPNodeBuilder;
+import ec.gp.GPNodeParent;
+import ec.gp.GPType;
+import ec.gp.koza.HalfBuilder;
+import ec.util.MersenneTwisterFast;
+import ec.util.Parameter;
+
+/**
+ * Tree builder that seeds part of the initial population with compositions
+ * built from the dependencies between the relevant services, leaving the
+ * other trees to another builder (HalfBuilder by default).
+ *
+ * The relevant services are first split into layers by forward chaining
+ * from the task inputs: a service is in layer k if the task inputs and the
+ * outputs of layers 0 to k - 1 satisfy all of its inputs, but those of
+ * fewer layers do not. A seeded tree is then found by searching backwards
+ * from the task outputs: each concept still needed is produced by a random
+ * service from an earlier layer than the service that needs it, unless a
+ * service already picked produces it, and the inputs of each picked service
+ * that the task inputs don't provide are needed in turn. The picked services
+ * of each layer are run in parallel, and the layers in sequence.
+ *
+ * Seeded trees deeper than max-depth (17 by default, as gp.koza.xover.maxdepth
+ * in koza.params), or larger than the size asked for, are left to the other
+ * builder too, since breeding would reject every change to them.
+ *
+ * Trees left to the other builder are rebuilt, up to a number of tries,
+ * until all of their sequences can run (see Feasibility).
+ */
+public class WSCBuilder extends GPNodeBuilder {
+	public static final String P_WSCBUILDER = "wsc-builder";
+	public static final String P_BUILDER = "builder";
+	public static final String P_SEED_PROBABILITY = "seed-probability";
+	public static final String P_TRIES = "tries";
+	public static final String P_MAX_DEPTH = "max-depth";
+
+	// Builds the trees that are not seeded
+	public GPNodeBuilder builder;
+	// Probability of seeding each tree
+	public double seedProbability;
+	// Trees built by the other builder for each tree returned, keeping the last if none is feasible
+	public int tries;
+	// Deepest seeded tree kept
+	public int maxDepth;
+
+	// Relevant services grouped by layer, computed once the repository is loaded
+	private List<List<Service>> layers;
+	private Map<Service, Integer> layerOf;
+
+	@Override
+	public Parameter defaultBase() {
+		return GPDefaults.base().push(P_WSCBUILDER);
+	}
+
+	@Override
+	public void setup(final EvolutionState state, final Parameter base) {
+		super.setup(state, base);
+		Parameter def = defaultBase();
+
+		seedProbability = state.parameters.getDoubleWithDefault(base.push(P_SEED_PROBABILITY), def.push(P_SEED_PROBABILITY), 0.5);
+		if (seedProbability < 0.0 || seedProbability > 1.0)
+			state.output.fatal("Seed probability must be between 0 and 1", base.push(P_SEED_PROBABILITY), def.push(P_SEED_PROBABILITY));
+
+		tries = state.parameters.getIntWithDefault(base.push(P_TRIES), def.push(P_TRIES), 1);
+		if (tries < 1)
+			state.output.fatal("Tries must be at least 1", base.push(P_TRIES), def.push(P_TRIES));
+
+		maxDepth = state.parameters.getIntWithDefault(base.push(P_MAX_DEPTH), def.push(P_MAX_DEPTH), 17);
+		if (maxDepth < 1)
+			state.output.fatal("Maximum depth must be at least 1", base.push(P_MAX_DEPTH), def.push(P_MAX_DEPTH));
+
+		if (state.parameters.exists(base.push(P_BUILDER), def.push(P_BUILDER)))
+			builder = (GPNodeBuilder) state.parameters.getInstanceForParameter(base.push(P_BUILDER), def.push(P_BUILDER), GPNodeBuilder.class);
+		else
+			builder = new HalfBuilder();
+		builder.setup(state, base.push(P_BUILDER));
+	}
+
+	@Override
+	public Object clone() {
+		WSCBuilder other = (WSCBuilder) super.clone();
+		other.builder = (GPNodeBuilder) builder.clone();
+		return other;
+	}
+
+	@Override
+	public GPNode newRootedTree(final EvolutionState state, final GPType type, final int thread, final GPNodeParent parent,
+			final GPFunctionSet set, final int argposition, final int requestedSize) {
+		GPNode root = null;
+		if (state.random[thread].nextBoolean(seedProbability)) {
+			root = seed(state, type, thread, set);
+			if (root != null && (root.depth() > maxDepth
+					|| (requestedSize != NOSIZEGIVEN && root.numNodes(GPNode.NODESEARCH_ALL) > requestedSize)))
+				root = null;
+		}
+		// The task inputs may already provide every task output, leaving nothing to seed, or the seed may be too big
+		if (root == null) {
+			WSCInitializer init = (WSCInitializer) state.initializer;
+			root = builder.newRootedTree(state, type, thread, parent, set, argposition, requestedSize);
+			for (int t = 1; t < tries && !Feasibility.isFeasible(root, init); t++)
+				root = builder.newRootedTree(state, type, thread, parent, set, argposition, requestedSize);
+			return root;
+		}
+		root.parent = parent;
+		root.argposition = (byte) argposition;
+		return root;
+	}
+
+	private GPNode seed(EvolutionState state, GPType type, int thread, GPFunctionSet set) {
+		WSCInitializer init = (WSCInitializer) state.initializer;
+		MersenneTwisterFast random = state.random[thread];
+		findLayers(init);
+
+		// Concepts still needed, each with the layer its producer must come before
+		List<Integer> needed = new ArrayList<Integer>();
+		List<Integer> before = new ArrayList<Integer>();
+		BitSet taskOutput = init.taskOutput;
+		for (int c = taskOutput.nextSetBit(0); c >= 0; c = taskOutput.nextSetBit(c + 1)) {
+			needed.add(c);
+			before.add(layers.size());
+		}
+
+		List<Service> picked = new ArrayList<Service>();
+		List<Service> candidates = new ArrayList<Service>();
+		BitSet concept = new BitSet();
+		while (!needed.isEmpty()) {
+			concept.clear();
+			concept.set(needed.remove(needed.size() - 1));
+			int limit = before.remove(before.size() - 1);
+			if (producer(init, concept, picked, limit) != null)
+				continue;
+
+			candidates.clear();
+			for (int l = 0; l < limit; l++) {
+				for (Service s : layers.get(l)) {
+					if (init.isSubsumed(concept, s.getOutputs()))
+						candidates.add(s);
+				}
+			}
+			// Only task outputs that the task inputs provide can lack producers
+			if (candidates.isEmpty())
+				continue;
+			Service s = candidates.get(random.nextInt(candidates.size()));
+			picked.add(s);
+
+			BitSet inputs = s.getInputs();
+			for (int i = inputs.nextSetBit(0); i >= 0; i = inputs.nextSetBit(i + 1)) {
+				concept.clear();
+				concept.set(i);
+				if (!init.isSubsumed(concept, init.taskInput)) {
+					needed.add(i);
+					before.add(layerOf.get(s));
+				}
+			}
+		}
+
+		GPNode serviceProto = prototype(state, type, set, ServiceNode.class);
+		GPNode sequenceProto = prototype(state, type, set, Sequence.class);
+		GPNode parallelProto = prototype(state, type, set, Parallel.class);
+
+		if (picked.isEmpty())
+			return null;
+
+		// Sequence the layers from the first onwards, so that each one follows all earlier ones
+		GPNode tree = null;
+		for (int l = 0; l < layers.size(); l++) {
+			List<GPNode> nodes = new ArrayList<GPNode>();
+			for (Service s : picked) {
+				if (layerOf.get(s) == l) {
+					ServiceNode n = (ServiceNode) serviceProto.lightClone();
+					n.setService(s);
+					nodes.add(n);
+				}
+			}
+			if (nodes.isEmpty())
+				continue;
+			GPNode layer = balance(parallelProto, nodes, 0, nodes.size());
+			tree = tree == null ? layer : join(sequenceProto, tree, layer);
+		}
+		return tree;
+	}
+
+	// Gets a picked service from before the given layer that produces the concept
+	private Service producer(WSCInitializer init, BitSet concept, List<Service> picked, int limit) {
+		for (Service s : picked) {
+			if (layerOf.get(s) < limit && init.isSubsumed(concept, s.getOutputs()))
+				return s;
+		}
+		return null;
+	}
+
+	private synchronized void findLayers(WSCInitializer init) {
+		if (layers != null)
+			return;
+		List<List<Service>> result = new ArrayList<List<Service>>();
+		Map<Service, Integer> resultLayerOf = new HashMap<Service, Integer>();
+		List<Service> remaining = new ArrayList<Service>(init.relevant);
+		BitSet available = (BitSet) init.taskInput.clone();
+		while (!remaining.isEmpty()) {
+			List<Service> layer = new ArrayList<Service>();
+			for (Service s : remaining) {
+				if (init.isSubsumed(s.getInputs(), available))
+					layer.add(s);
+			}
+			if (layer.isEmpty())
+				break;
+			for (Service s : layer) {
+				available.or(s.getOutputs());
+				resultLayerOf.put(s, result.size());
+			}
+			remaining.removeAll(layer);
+			result.add(layer);
+		}
+		layerOf = resultLayerOf;
+		layers = result;
+	}
+
+	// Runs the given nodes in parallel, as a balanced tree
+	private static GPNode balance(GPNode proto, List<GPNode> nodes, int from, int to) {
+		if (to - from == 1)
+			return nodes.get(from);
+		int middle = (from + to) >>> 1;
+		return join(proto, balance(proto, nodes, from, middle), balance(proto, nodes, middle, to));
+	}
+
+	private static GPNode join(GPNode proto, GPNode left, GPNode right) {
+		GPNode n = proto.lightClone();
+		n.children[0] = left;
+		n.children[1] = right;
+		left.parent = n;
+		left.argposition = 0;
+		right.parent = n;
+		right.argposition = 1;
+		return n;
+	}
+
+	private static GPNode prototype(EvolutionState state, GPType type, GPFunctionSet set, Class<?> c) {
+		for (GPNode n : set.nodes[type.type]) {
+			if (c.isInstance(n))
+				return n;
+		}
+		state.output.fatal("Function set " + set.name + " has no " + c.getSimpleName() + " to seed trees with");
+		return null;
+	}
+}
@@ -0,0 +1,210 @@
+package wsc;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import ec.EvolutionState;
+import ec.Evolve;
+import ec.Individual;
+import ec.Species;
+import ec.simple.SimpleStatistics;
+import ec.util.ParameterDatabase;
+
+/**
+ * Checkpoints of WSC runs, which hold only what the run needs to carry on
+ * from where it was: the generation, the state of the random number
+ * generators, the evaluated population and the best individuals of the run.
+ * Individuals are written with writeIndividual, so services are stored as
+ * their positions in the relevant service list (see ServiceNode.writeNode)
+ * rather than as Java-serialised objects, and are looked up again in the
+ * repository loaded on resume. This keeps checkpoints small enough to be
+ * written every generation, unlike ECJ's own checkpoints, which serialise
+ * the whole EvolutionState along with the repository.
+ *
+ * Checkpoints are written by WSCStatistics once a generation has been
+ * evaluated, if checkpoint-file is set. A run resumes from that generation
+ * with the same parameters, but its statistics logs are started afresh, its
+ * fitness cache is empty and its time budget and stagnation count start
+ * again.
+ *
+ * Layout (all values big-endian):
+ *   header:      magic, version, relevant service count, hash of their names
+ *   generation:  number of the generation evaluated
+ *   random:      generator count, then each generator's state
+ *   population:  subpopulation count, then per subpopulation: individual
+ *                count and individuals
+ *   best of run: count, then per subpopulation: whether it has one, and the
+ *                individual
+ *
+ * Usage: java wsc.WSCCheckpoint [-file params] [-p name=value ...]
+ * checkpoint, where the parameters default to wsc.params and must describe
+ * the same task and repository as the run that wrote the checkpoint.
+ */
+public class WSCCheckpoint {
+	private static final int MAGIC = 0x5753434b; // "WSCK"
+	private static final int VERSION = 1;
+
+	public static void main(String[] args) throws IOException {
+		File paramsFile = new File("wsc.params");
+		List<String> overrides = new ArrayList<String>();
+		List<String> files = new ArrayList<String>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-file") && i + 1 < args.length)
+				paramsFile = new File(args[++i]);
+			else if (args[i].equals("-p") && i + 1 < args.length) {
+				overrides.add(args[i]);
+				overrides.add(args[++i]);
+			}
+			else
+				files.add(args[i]);
+		}
+		if (files.size() != 1) {
+			System.err.println("Usage: java wsc.WSCCheckpoint [-file params] [-p name=value ...] checkpoint");
+			System.exit(1);
+		}
+		File checkpoint = new File(files.get(0));
+
+		ParameterDatabase db = new ParameterDatabase(paramsFile, overrides.toArray(new String[overrides.size()]));
+		EvolutionState state = Evolve.initialize(db, 0);
+		// Set the run up as usual, and then replace its initial population
+		state.startFresh();
+		try {
+			read(state, checkpoint);
+		}
+		catch (IOException e) {
+			state.output.fatal("Could not resume from the checkpoint " + checkpoint + ":\n" + e);
+		}
+		state.output.message("Resuming from generation " + state.generation);
+
+		int result = EvolutionState.R_NOTDONE;
+		while (result == EvolutionState.R_NOTDONE)
+			result = state.evolve();
+		state.finish(result);
+		Evolve.cleanup(state);
+	}
+
+	/**
+	 * Writes a checkpoint of the run to the given file, replacing it only
+	 * once the checkpoint is complete.
+	 *
+	 * @param state
+	 * @param file
+	 * @throws IOException
+	 */
+	public static void write(EvolutionState state, File file) throws IOException {
+		File dir = file.getAbsoluteFile().getParentFile();
+		File temp = File.createTempFile(file.getName(), ".tmp", dir);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 1 << 16));
+		try {
+			WSCInitializer init = (WSCInitializer) state.initializer;
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(init.relevant.size());
+			out.writeLong(hashRelevant(init));
+
+			out.writeInt(state.generation);
+			out.writeInt(state.random.length);
+			for (int r = 0; r < state.random.length; r++)
+				state.random[r].writeState(out);
+
+			out.writeInt(state.population.subpops.length);
+			for (int s = 0; s < state.population.subpops.length; s++) {
+				Individual[] individuals = state.population.subpops[s].individuals;
+				out.writeInt(individuals.length);
+				for (Individual ind : individuals)
+					ind.writeIndividual(state, out);
+			}
+
+			Individual[] best = state.statistics instanceof SimpleStatistics ? ((SimpleStatistics) state.statistics).best_of_run : new Individual[0];
+			out.writeInt(best.length);
+			for (Individual ind : best) {
+				out.writeBoolean(ind != null);
+				if (ind != null)
+					ind.writeIndividual(state, out);
+			}
+		}
+		finally {
+			out.close();
+		}
+
+		try {
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (IOException e) {
+			temp.delete();
+			throw e;
+		}
+	}
+
+	/**
+	 * Restores the run in the given checkpoint into a state that has been
+	 * set up with the same parameters.
+	 *
+	 * @param state
+	 * @param file
+	 * @throws IOException if the checkpoint can't be read, or was written for
+	 *             another task or repository
+	 */
+	public static void read(EvolutionState state, File file) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+		try {
+			WSCInitializer init = (WSCInitializer) state.initializer;
+			if (in.readInt() != MAGIC || in.readInt() != VERSION)
+				throw new IOException("Not a WSC checkpoint, or written by another version");
+			if (in.readInt() != init.relevant.size() || in.readLong() != hashRelevant(init))
+				throw new IOException("The checkpoint was written for another task or repository");
+
+			int generation = in.readInt();
+			if (in.readInt() != state.random.length)
+				throw new IOException("The checkpoint was written with another number of threads");
+			for (int r = 0; r < state.random.length; r++)
+				state.random[r].readState(in);
+
+			if (in.readInt() != state.population.subpops.length)
+				throw new IOException("The checkpoint was written with another number of subpopulations");
+			Individual[][] individuals = new Individual[state.population.subpops.length][];
+			for (int s = 0; s < individuals.length; s++) {
+				Species species = state.population.subpops[s].species;
+				individuals[s] = new Individual[in.readInt()];
+				for (int i = 0; i < individuals[s].length; i++)
+					individuals[s][i] = species.newIndividual(state, in);
+			}
+
+			Individual[] best = new Individual[in.readInt()];
+			if (best.length > individuals.length)
+				throw new IOException("The checkpoint has best individuals for more subpopulations than it has");
+			for (int s = 0; s < best.length; s++) {
+				if (in.readBoolean())
+					best[s] = state.population.subpops[s].species.newIndividual(state, in);
+			}
+
+			// Only change the run once the whole checkpoint has been read
+			state.generation = generation;
+			for (int s = 0; s < individuals.length; s++)
+				state.population.subpops[s].individuals = individuals[s];
+			if (state.statistics instanceof SimpleStatistics && best.length > 0)
+				((SimpleStatistics) state.statistics).best_of_run = best;
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	// Identifies the relevant services by name and order, which service positions depend on
+	private static long hashRelevant(WSCInitializer init) {
+		long hash = 17;
+		for (Service s : init.relevant)
+			hash = hash * 31 + s.getName().hashCode();
+		return hash;
+	}
+}
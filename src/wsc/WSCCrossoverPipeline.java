@@ -0,0 +1,19 @@
+package wsc;
+
+import ec.gp.GPInitializer;
+import ec.gp.GPNode;
+import ec.gp.koza.CrossoverPipeline;
+
+/**
+ * Subtree crossover that only swaps subtrees into places where every
+ * sequence they become part of can still run (see Feasibility). Swaps that
+ * fail the check are retried up to the pipeline's number of tries, after
+ * which the parents are passed on unchanged, and so need no evaluation.
+ * Reads its parameters from the same place as CrossoverPipeline.
+ */
+public class WSCCrossoverPipeline extends CrossoverPipeline {
+	@Override
+	public boolean verifyPoints(final GPInitializer initializer, final GPNode inner1, final GPNode inner2) {
+		return super.verifyPoints(initializer, inner1, inner2) && Feasibility.fits(inner1, inner2, (WSCInitializer) initializer);
+	}
+}
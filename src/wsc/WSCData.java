@@ -1,25 +1,123 @@
 package wsc;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.util.BitSet;
 
 import ec.util.*;
 import ec.*;
 import ec.gp.*;
 
+/**
+ * Scratch state used while evaluating a composition tree. Nodes write their
+ * results into the current frame; composite nodes evaluate their right-hand
+ * child one frame further down and then merge it into their own frame. The
+ * frames are kept between evaluations, so once they have grown to the depth
+ * of the trees being evaluated no further allocation takes place.
+ */
 public class WSCData extends GPData {
-	public double[] qos;
-	public Set<String> inputs = new HashSet<String>();
-	public Set<String> outputs = new HashSet<String>();
-	public int totalInputs;
-	public int satisfiedInputs;
+	// Number of QoS values kept per frame
+	public static final int QOS_SIZE = 4;
+	private static final int INITIAL_FRAMES = 18;
+
+	public int frame;
+	// QoS values of frame f start at f * QOS_SIZE
+	public double[] qos = new double[INITIAL_FRAMES * QOS_SIZE];
+	public BitSet[] inputs = newBitSets(INITIAL_FRAMES);
+	public BitSet[] outputs = newBitSets(INITIAL_FRAMES);
+	public int[] totalInputs = new int[INITIAL_FRAMES];
+	public int[] satisfiedInputs = new int[INITIAL_FRAMES];
+
+	/**
+	 * Prepares the data for the evaluation of a new tree, whose result
+	 * will be left in frame 0.
+	 */
+	public void reset() {
+		frame = 0;
+	}
+
+	/**
+	 * Moves to the next frame, growing the frame arrays if needed.
+	 */
+	public void push() {
+		frame++;
+		if (frame == totalInputs.length)
+			grow();
+	}
+
+	/**
+	 * Moves back to the previous frame. The contents of the frame
+	 * being left stay available until it is next written to.
+	 */
+	public void pop() {
+		frame--;
+	}
+
+	/**
+	 * Writes the given service's values into the current frame.
+	 *
+	 * @param service
+	 */
+	public void load(Service service) {
+		System.arraycopy(service.qos, 0, qos, frame * QOS_SIZE, QOS_SIZE);
+		inputs[frame].clear();
+		inputs[frame].or(service.inputs);
+		outputs[frame].clear();
+		outputs[frame].or(service.outputs);
+		totalInputs[frame] = service.inputs.cardinality();
+		satisfiedInputs[frame] = totalInputs[frame];
+	}
+
+	private void grow() {
+		int size = totalInputs.length * 2;
+		double[] newQos = new double[size * QOS_SIZE];
+		System.arraycopy(qos, 0, newQos, 0, qos.length);
+		qos = newQos;
+
+		BitSet[] newInputs = newBitSets(size);
+		BitSet[] newOutputs = newBitSets(size);
+		System.arraycopy(inputs, 0, newInputs, 0, inputs.length);
+		System.arraycopy(outputs, 0, newOutputs, 0, outputs.length);
+		inputs = newInputs;
+		outputs = newOutputs;
+
+		int[] newTotal = new int[size];
+		int[] newSatisfied = new int[size];
+		System.arraycopy(totalInputs, 0, newTotal, 0, totalInputs.length);
+		System.arraycopy(satisfiedInputs, 0, newSatisfied, 0, satisfiedInputs.length);
+		totalInputs = newTotal;
+		satisfiedInputs = newSatisfied;
+	}
+
+	private static BitSet[] newBitSets(int size) {
+		BitSet[] sets = new BitSet[size];
+		for (int i = 0; i < size; i++)
+			sets[i] = new BitSet();
+		return sets;
+	}
 
 	public void copyTo(final GPData gpd) {
 		WSCData wscd = (WSCData) gpd;
-		wscd.qos = qos;
-		wscd.inputs = inputs;
-		wscd.outputs = outputs;
-		wscd.totalInputs = totalInputs;
-		wscd.satisfiedInputs = satisfiedInputs;
+		System.arraycopy(qos, frame * QOS_SIZE, wscd.qos, wscd.frame * QOS_SIZE, QOS_SIZE);
+		wscd.inputs[wscd.frame].clear();
+		wscd.inputs[wscd.frame].or(inputs[frame]);
+		wscd.outputs[wscd.frame].clear();
+		wscd.outputs[wscd.frame].or(outputs[frame]);
+		wscd.totalInputs[wscd.frame] = totalInputs[frame];
+		wscd.satisfiedInputs[wscd.frame] = satisfiedInputs[frame];
+	}
+
+	@Override
+	public Object clone() {
+		// Each clone (e.g. one per evaluation thread) gets its own frames
+		WSCData other = (WSCData) super.clone();
+		other.qos = qos.clone();
+		other.inputs = newBitSets(inputs.length);
+		other.outputs = newBitSets(outputs.length);
+		for (int i = 0; i < inputs.length; i++) {
+			other.inputs[i].or(inputs[i]);
+			other.outputs[i].or(outputs[i]);
+		}
+		other.totalInputs = totalInputs.clone();
+		other.satisfiedInputs = satisfiedInputs.clone();
+		return other;
 	}
 }
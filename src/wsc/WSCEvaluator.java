@@ -0,0 +1,135 @@
+package wsc;
+
+import java.util.Arrays;
+
+import ec.EvolutionState;
+import ec.Fitness;
+import ec.Individual;
+import ec.simple.SimpleEvaluator;
+import ec.util.Parameter;
+
+/**
+ * Evaluator that scores the population in one batch. The WSC problem only
+ * aggregates each individual's tree into its raw fitness components, still
+ * split across the evaluation threads as usual. The components of all newly
+ * evaluated individuals are then gathered into one column per component,
+ * which are normalised and weighted with a few loops over the whole batch.
+ * Requires the individuals' fitness to be WSCFitness.
+ *
+ * Runs can also be stopped early, keeping the best composition found so far,
+ * once a time budget is used up, or once the best composition is complete
+ * and has not improved for a number of generations. Either ends the run when
+ * quit-on-run-complete is set. ECJ then reports the run as having found an
+ * ideal individual, so the reason it actually stopped is kept in stopReason
+ * (which WSCStatistics writes to the statistics file).
+ */
+public class WSCEvaluator extends SimpleEvaluator {
+	public static final String P_BUDGET = "budget";
+	public static final String P_STAGNATION = "stagnation";
+
+	// Time (from System.nanoTime) by which the run should end; Long.MAX_VALUE if unlimited
+	public long deadline = Long.MAX_VALUE;
+	// Generations without improvement after which a complete composition ends the run; 0 if never
+	public int stagnation;
+	// Why the evaluator ended the run early, null if it didn't
+	public String stopReason;
+
+	// When the last generation finished evaluating
+	private long lastEvaluation;
+	// Best fitness so far, the generation it was found in and whether it is complete
+	private Fitness best;
+	private int bestGeneration;
+	private boolean bestComplete;
+
+	// Scratch space for the batch, grown to the size of the population
+	private Individual[] batch = new Individual[0];
+	private double[][] columns = new double[WSCFitness.COMPONENTS][0];
+	private double[] fitness = new double[0];
+
+	@Override
+	public void setup(final EvolutionState state, final Parameter base) {
+		super.setup(state, base);
+		if (!(p_problem instanceof WSC))
+			state.output.fatal("Problem class must be " + WSC.class + " to be scored in batches", base.push(P_PROBLEM), null);
+		((WSC) p_problem).batch = true;
+
+		lastEvaluation = System.nanoTime();
+		double budget = state.parameters.getDoubleWithDefault(base.push(P_BUDGET), null, 0.0);
+		if (budget < 0.0)
+			state.output.fatal("Time budget must be a non-negative number of seconds", base.push(P_BUDGET), null);
+		else if (budget > 0.0)
+			deadline = lastEvaluation + (long) (budget * 1e9);
+		stagnation = state.parameters.getIntWithDefault(base.push(P_STAGNATION), null, 0);
+		if (stagnation < 0)
+			state.output.fatal("Stagnation must be a non-negative number of generations", base.push(P_STAGNATION), null);
+	}
+
+	@Override
+	public void evaluatePopulation(final EvolutionState state) {
+		// Note the individuals to be evaluated, as they all count as evaluated afterwards
+		int size = 0;
+		for (int s = 0; s < state.population.subpops.length; s++) {
+			for (Individual ind : state.population.subpops[s].individuals) {
+				if (ind.evaluated)
+					continue;
+				if (!(ind.fitness instanceof WSCFitness))
+					state.output.fatal("Fitness class must be " + WSCFitness.class + " to be scored in batches");
+				if (size == batch.length)
+					grow(Math.max(size * 2, 64));
+				batch[size++] = ind;
+			}
+		}
+
+		super.evaluatePopulation(state);
+
+		for (int k = 0; k < size; k++) {
+			double[] components = ((WSCFitness) batch[k].fitness).components;
+			for (int c = 0; c < WSCFitness.COMPONENTS; c++)
+				columns[c][k] = components[c];
+		}
+		WSC.score(columns, size, fitness, (WSCInitializer) state.initializer);
+		for (int k = 0; k < size; k++) {
+			((WSCFitness) batch[k].fitness).setFitness(state, fitness[k], false);
+			batch[k] = null;
+		}
+	}
+
+	@Override
+	public boolean runComplete(final EvolutionState state) {
+		if (super.runComplete(state))
+			return true;
+
+		for (int s = 0; s < state.population.subpops.length; s++) {
+			for (Individual ind : state.population.subpops[s].individuals) {
+				if (best == null || ind.fitness.betterThan(best)) {
+					best = (Fitness) ind.fitness.clone();
+					bestGeneration = state.generation;
+					bestComplete = ((WSCFitness) ind.fitness).isComplete();
+				}
+			}
+		}
+		if (stagnation > 0 && bestComplete && state.generation - bestGeneration >= stagnation) {
+			stopReason = "Best composition complete and unimproved for " + stagnation + " generations";
+			state.output.message(stopReason);
+			return true;
+		}
+
+		// Rather than overrun the deadline, stop if another generation as long as the last would
+		long now = System.nanoTime();
+		long generationTime = now - lastEvaluation;
+		lastEvaluation = now;
+		if (deadline != Long.MAX_VALUE && now + generationTime > deadline) {
+			stopReason = "Time budget used up after generation " + state.generation;
+			state.output.message(stopReason);
+			return true;
+		}
+		return false;
+	}
+
+	private void grow(int capacity) {
+		batch = Arrays.copyOf(batch, capacity);
+		for (int c = 0; c < WSCFitness.COMPONENTS; c++)
+			columns[c] = new double[capacity];
+		fitness = new double[capacity];
+	}
+}
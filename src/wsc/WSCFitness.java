@@ -0,0 +1,59 @@
+package wsc;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import ec.EvolutionState;
+import ec.simple.SimpleFitness;
+
+/**
+ * Fitness of a composition, together with the raw components it is scored
+ * from: the aggregated QoS values of the composition and how well its
+ * inputs and outputs are satisfied, all before normalisation or weighting.
+ */
+public class WSCFitness extends SimpleFitness {
+	public static final int AVAILABILITY = 0;
+	public static final int RELIABILITY = 1;
+	public static final int TIME = 2;
+	public static final int COST = 3;
+	// Share of the composition's inputs provided by the task
+	public static final int INPUTS = 4;
+	// Share of the task outputs produced by the composition
+	public static final int OUTPUTS = 5;
+	// Inputs within the composition satisfied by preceding services, relative to the
+	// services' inputs; each service also counts its own inputs, so this is at least 1
+	public static final int CONNECTIONS = 6;
+	public static final int COMPONENTS = 7;
+
+	public double[] components = new double[COMPONENTS];
+
+	/**
+	 * Returns whether the composition is complete: the task provides all of
+	 * its inputs, and it produces all of the task outputs.
+	 */
+	public boolean isComplete() {
+		return components[INPUTS] == 1.0 && components[OUTPUTS] == 1.0;
+	}
+
+	@Override
+	public void writeFitness(final EvolutionState state, final DataOutput dataOutput) throws IOException {
+		super.writeFitness(state, dataOutput);
+		for (double c : components)
+			dataOutput.writeDouble(c);
+	}
+
+	@Override
+	public void readFitness(final EvolutionState state, final DataInput dataInput) throws IOException {
+		super.readFitness(state, dataInput);
+		for (int c = 0; c < COMPONENTS; c++)
+			components[c] = dataInput.readDouble();
+	}
+
+	@Override
+	public Object clone() {
+		WSCFitness other = (WSCFitness) super.clone();
+		other.components = components.clone();
+		return other;
+	}
+}
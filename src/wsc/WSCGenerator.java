@@ -0,0 +1,288 @@
+package wsc;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Locale;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import ec.util.MersenneTwisterFast;
+
+/**
+ * Generates synthetic WSC repositories (taxonomy, service and task files)
+ * in the schema read by WSCInitializer, for testing how the preprocessing
+ * scales. Every concept has a single instance, and concept i is named
+ * "con" + i and its instance "inst" + i, where i is the concept's position
+ * in a pre-order traversal of the taxonomy.
+ *
+ * The task is guaranteed to be solvable: a chain of services is planned
+ * first, where the first one takes the task inputs, every further one takes
+ * outputs of the one before, and the last one produces the wanted outputs.
+ * All other services have random inputs and outputs.
+ *
+ * Files are written as they are generated, so memory use does not depend on
+ * the number of services or concepts.
+ *
+ * Usage: java wsc.WSCGenerator directory [name=value ...], with the names
+ * listed below. Missing values keep their defaults.
+ */
+public class WSCGenerator {
+	public static final String P_CONCEPTS = "concepts";
+	public static final String P_DEPTH = "depth";
+	public static final String P_SERVICES = "services";
+	public static final String P_FAN_IN = "fan-in";
+	public static final String P_FAN_OUT = "fan-out";
+	public static final String P_SOLUTION = "solution";
+	public static final String P_SEED = "seed";
+
+	// Number of concepts in the taxonomy
+	public int concepts = 5000;
+	// Maximum number of concept levels below the taxonomy root
+	public int depth = 10;
+	// Number of services, including those of the planned solution
+	public int services = 1000;
+	// Maximum number of inputs and outputs per service
+	public int fanIn = 5;
+	public int fanOut = 5;
+	// Number of services in the planned solution
+	public int solution = 5;
+	public long seed = 1;
+
+	private MersenneTwisterFast random;
+	// Branching factor needed to fit all concepts within the depth
+	private int branching;
+	private int nextConcept;
+	// Inputs and outputs of the services in the planned solution
+	private int[][] solutionInputs;
+	private int[][] solutionOutputs;
+	private int[] wanted;
+
+	public static void main(String[] args) throws IOException, XMLStreamException {
+		if (args.length == 0) {
+			System.err.println("Usage: java wsc.WSCGenerator directory [" + P_CONCEPTS + "=n] [" + P_DEPTH + "=n] ["
+					+ P_SERVICES + "=n] [" + P_FAN_IN + "=n] [" + P_FAN_OUT + "=n] [" + P_SOLUTION + "=n] [" + P_SEED + "=n]");
+			System.exit(1);
+		}
+
+		WSCGenerator generator = new WSCGenerator();
+		for (int i = 1; i < args.length; i++) {
+			int split = args[i].indexOf('=');
+			if (split < 0) {
+				System.err.println("Expected name=value, got " + args[i]);
+				System.exit(1);
+			}
+			generator.set(args[i].substring(0, split), args[i].substring(split + 1));
+		}
+
+		File dir = new File(args[0]);
+		dir.mkdirs();
+		generator.generate(new File(dir, "taxonomy.xml"), new File(dir, "services-output.xml"), new File(dir, "problem.xml"));
+	}
+
+	/**
+	 * Sets the named generator setting from its string value.
+	 *
+	 * @param name
+	 * @param value
+	 */
+	public void set(String name, String value) {
+		if (name.equals(P_CONCEPTS))
+			concepts = Integer.parseInt(value);
+		else if (name.equals(P_DEPTH))
+			depth = Integer.parseInt(value);
+		else if (name.equals(P_SERVICES))
+			services = Integer.parseInt(value);
+		else if (name.equals(P_FAN_IN))
+			fanIn = Integer.parseInt(value);
+		else if (name.equals(P_FAN_OUT))
+			fanOut = Integer.parseInt(value);
+		else if (name.equals(P_SOLUTION))
+			solution = Integer.parseInt(value);
+		else if (name.equals(P_SEED))
+			seed = Long.parseLong(value);
+		else
+			throw new IllegalArgumentException("Unknown generator setting: " + name);
+	}
+
+	/**
+	 * Writes a repository and a solvable task for it to the given files.
+	 *
+	 * @param taxonomyFile
+	 * @param servicesFile
+	 * @param taskFile
+	 * @throws IOException
+	 * @throws XMLStreamException
+	 */
+	public void generate(File taxonomyFile, File servicesFile, File taskFile) throws IOException, XMLStreamException {
+		if (concepts < 1 || depth < 1 || fanIn < 1 || fanOut < 1 || solution < 1 || services < solution)
+			throw new IllegalArgumentException("Invalid generator settings");
+
+		random = new MersenneTwisterFast(seed);
+		branching = 2;
+		while (Math.pow(branching, depth) < concepts)
+			branching++;
+
+		planSolution();
+		writeTaxonomy(taxonomyFile);
+		writeServices(servicesFile);
+		writeTask(taskFile);
+	}
+
+	private void planSolution() {
+		solutionInputs = new int[solution][];
+		solutionOutputs = new int[solution][];
+		for (int i = 0; i < solution; i++) {
+			if (i == 0)
+				solutionInputs[i] = randomConcepts(fanIn);
+			else
+				solutionInputs[i] = randomSubset(solutionOutputs[i - 1], fanIn);
+			solutionOutputs[i] = randomConcepts(fanOut);
+		}
+		wanted = randomSubset(solutionOutputs[solution - 1], fanOut);
+	}
+
+	private void writeTaxonomy(File file) throws IOException, XMLStreamException {
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16);
+		XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(out, "UTF-8");
+		try {
+			writer.writeStartDocument("UTF-8", "1.0");
+			writer.writeStartElement("taxonomy");
+			nextConcept = 0;
+			writeChildren(writer, concepts);
+			writer.writeEndElement();
+			writer.writeEndDocument();
+		}
+		finally {
+			writer.close();
+			out.close();
+		}
+	}
+
+	// Writes subtrees holding the given number of concepts in total
+	private void writeChildren(XMLStreamWriter writer, int size) throws XMLStreamException {
+		int children = Math.min(size, branching);
+		for (int i = 0; i < children; i++) {
+			// Split evenly, so that no subtree needs more levels than the depth allows
+			int subtreeSize = size / children + (i < size % children ? 1 : 0);
+			int id = nextConcept++;
+			writer.writeStartElement("concept");
+			writer.writeAttribute("name", "con" + id);
+			writer.writeEmptyElement("instance");
+			writer.writeAttribute("name", "inst" + id);
+			if (subtreeSize > 1)
+				writeChildren(writer, subtreeSize - 1);
+			writer.writeEndElement();
+		}
+	}
+
+	private void writeServices(File file) throws IOException, XMLStreamException {
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16);
+		XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(out, "UTF-8");
+		try {
+			writer.writeStartDocument("UTF-8", "1.0");
+			writer.writeStartElement("services");
+			// Hide the solution among the random services, picking each position with the
+			// probability that spreads the remaining solution services evenly over the rest
+			int next = 0;
+			for (int i = 0; i < services; i++) {
+				if (random.nextInt(services - i) < solution - next) {
+					writeService(writer, "serv" + i, solutionInputs[next], solutionOutputs[next]);
+					next++;
+				}
+				else
+					writeService(writer, "serv" + i, randomConcepts(1 + random.nextInt(fanIn)), randomConcepts(1 + random.nextInt(fanOut)));
+			}
+			writer.writeEndElement();
+			writer.writeEndDocument();
+		}
+		finally {
+			writer.close();
+			out.close();
+		}
+	}
+
+	private void writeService(XMLStreamWriter writer, String name, int[] inputs, int[] outputs) throws XMLStreamException {
+		writer.writeStartElement("service");
+		writer.writeAttribute("name", name);
+		writer.writeAttribute("Res", format(100 + random.nextDouble() * 4900));
+		writer.writeAttribute("Ava", format(random.nextDouble()));
+		writer.writeAttribute("Suc", format(random.nextDouble()));
+		writer.writeAttribute("Rel", format(random.nextDouble()));
+		writer.writeAttribute("Lat", format(random.nextDouble() * 3000));
+		writer.writeAttribute("Pri", format(1 + random.nextDouble() * 9));
+		writeInstances(writer, "inputs", inputs);
+		writeInstances(writer, "outputs", outputs);
+		writer.writeEndElement();
+	}
+
+	private void writeTask(File file) throws IOException, XMLStreamException {
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16);
+		XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(out, "UTF-8");
+		try {
+			writer.writeStartDocument("UTF-8", "1.0");
+			writer.writeStartElement("problemStructure");
+			writer.writeStartElement("task");
+			writeInstances(writer, "provided", solutionInputs[0]);
+			writeInstances(writer, "wanted", wanted);
+			writer.writeEndElement();
+			writer.writeEndElement();
+			writer.writeEndDocument();
+		}
+		finally {
+			writer.close();
+			out.close();
+		}
+	}
+
+	private static void writeInstances(XMLStreamWriter writer, String tag, int[] concepts) throws XMLStreamException {
+		writer.writeStartElement(tag);
+		for (int c : concepts) {
+			writer.writeEmptyElement("instance");
+			writer.writeAttribute("name", "inst" + c);
+		}
+		writer.writeEndElement();
+	}
+
+	// Picks up to the given number of distinct concepts
+	private int[] randomConcepts(int count) {
+		int[] result = new int[Math.min(count, concepts)];
+		int size = 0;
+		while (size < result.length) {
+			int c = random.nextInt(concepts);
+			if (!contains(result, size, c))
+				result[size++] = c;
+		}
+		return result;
+	}
+
+	// Picks the given number of distinct values from the array, or all of them if there are fewer
+	private int[] randomSubset(int[] values, int count) {
+		int[] shuffled = values.clone();
+		int size = Math.min(shuffled.length, count);
+		for (int i = 0; i < size; i++) {
+			int j = i + random.nextInt(shuffled.length - i);
+			int tmp = shuffled[i];
+			shuffled[i] = shuffled[j];
+			shuffled[j] = tmp;
+		}
+		return Arrays.copyOf(shuffled, size);
+	}
+
+	private static boolean contains(int[] values, int size, int value) {
+		for (int i = 0; i < size; i++) {
+			if (values[i] == value)
+				return true;
+		}
+		return false;
+	}
+
+	private static String format(double value) {
+		return String.format(Locale.US, "%.2f", value);
+	}
+}
@@ -1,9 +1,16 @@
 package wsc;
 
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
@@ -11,16 +18,16 @@ import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
-import org.w3c.dom.Text;
-import org.xml.sax.SAXException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import ec.EvolutionState;
 import ec.gp.GPInitializer;
@@ -33,13 +40,32 @@ public class WSCInitializer extends GPInitializer {
 	public static final int COST = 1;
 	public static final int AVAILABILITY = 2;
 	public static final int RELIABILITY = 3;
+	// Read from the service file, but not used for fitness
+	public static final int SUCCESSABILITY = 4;
+	public static final int LATENCY = 5;
+	public static final int NUM_QOS = 6;
+
+	public static final String P_PROVIDED = "provided";
+	public static final String P_WANTED = "wanted";
 
 	public Map<String, Service> serviceMap = new HashMap<String, Service>();
 	public Map<String, Integer> serviceToIndexMap = new HashMap<String, Integer>();
 	public List<Service> relevant;
 	public Map<String, TaxonomyNode> taxonomyMap = new HashMap<String, TaxonomyNode>();
-	public Set<String> taskInput;
-	public Set<String> taskOutput;
+	public TaxonomyNode[] taxonomyNodes;
+	// Services producing each concept, and producing any concept it subsumes, as sorted
+	// positions in the service map, indexed by concept ID
+	public int[][] producers;
+	public int[][] subtreeProducers;
+	// Repositories loaded once for a batch of tasks, keyed by their service and taxonomy files
+	private static final Map<String, WSCInitializer> sharedRepositories = new HashMap<String, WSCInitializer>();
+	// Scratch space for countInputsSatisfied, one per evaluation thread and cleared after each use
+	private static final ThreadLocal<long[]> producerScratch = new ThreadLocal<long[]>();
+	public BitSet taskInput;
+	public BitSet taskOutput;
+	// Calls to countInputsSatisfied, which evaluation makes for each sequence, only counted when countCalls is set
+	public boolean countCalls;
+	public final LongAdder satisfiedCalls = new LongAdder();
 
 	public final double minAvailability = 0.0;
 	public double maxAvailability = -1.0;
@@ -64,6 +90,8 @@ public class WSCInitializer extends GPInitializer {
 		Parameter servicesParam = new Parameter("composition-services");
 		Parameter taskParam = new Parameter("composition-task");
 		Parameter taxonomyParam = new Parameter("composition-taxonomy");
+		Parameter snapshotParam = new Parameter("composition-snapshot");
+		Parameter threadsParam = new Parameter("composition-threads");
 		Parameter weight1Param = new Parameter("fitness-weight1");
 		Parameter weight2Param = new Parameter("fitness-weight2");
 		Parameter weight3Param = new Parameter("fitness-weight3");
@@ -80,10 +108,82 @@ public class WSCInitializer extends GPInitializer {
 		w6 = state.parameters.getDouble(weight6Param, null);
 		w7 = state.parameters.getDouble(weight7Param, null);
 
-		parseWSCServiceFile(state.parameters.getString(servicesParam, null));
-		parseWSCTaskFile(state.parameters.getString(taskParam, null));
-		parseWSCTaxonomyFile(state.parameters.getString(taxonomyParam, null));
-		findConceptsForInstances();
+		String servicesFile = state.parameters.getString(servicesParam, null);
+		String taskFile = state.parameters.getString(taskParam, null);
+		String taxonomyFile = state.parameters.getString(taxonomyParam, null);
+
+		// The task can also be given directly, as lists of provided and wanted instances
+		Parameter providedParam = taskParam.push(P_PROVIDED);
+		Parameter wantedParam = taskParam.push(P_WANTED);
+		String provided = state.parameters.getString(providedParam, null);
+		String wanted = state.parameters.getString(wantedParam, null);
+		boolean inlineTask = provided != null || wanted != null;
+
+		File snapshotFile = null;
+		byte[] hash = null;
+		WSCInitializer shared = getSharedRepository(servicesFile, taxonomyFile);
+		if (shared != null) {
+			// Part of a batch, so only the task is left to load
+			serviceMap = shared.serviceMap;
+			taxonomyMap = shared.taxonomyMap;
+			taxonomyNodes = shared.taxonomyNodes;
+			producers = shared.producers;
+			subtreeProducers = shared.subtreeProducers;
+			if (!inlineTask)
+				parseWSCTaskFile(taskFile);
+		}
+		else {
+			// Skip all the preprocessing if there is an up-to-date snapshot of its results
+			if (!inlineTask)
+				snapshotFile = state.parameters.getFile(snapshotParam, null);
+			if (snapshotFile != null) {
+				try {
+					hash = WSCSnapshot.hashFiles(servicesFile, taxonomyFile, taskFile);
+					if (WSCSnapshot.load(this, snapshotFile, hash)) {
+						state.output.message("Loaded preprocessed repository from " + snapshotFile);
+						return;
+					}
+				}
+				catch (IOException e) {
+					state.output.warning("Could not read repository snapshot: " + e, snapshotParam);
+					clearRepository();
+				}
+				catch (RuntimeException e) {
+					// A truncated or corrupt snapshot fails on its lengths rather than with an IOException
+					state.output.warning("Could not read repository snapshot: " + e, snapshotParam);
+					clearRepository();
+				}
+			}
+
+			int threads = state.parameters.getIntWithDefault(threadsParam, null, Runtime.getRuntime().availableProcessors());
+			if (threads < 1)
+				state.output.fatal("Number of repository loading threads must be at least 1", threadsParam);
+			ForkJoinPool pool = new ForkJoinPool(threads);
+			try {
+				loadRepository(pool, servicesFile, taxonomyFile, inlineTask ? null : taskFile);
+			}
+			catch (InterruptedException e) {
+				state.output.fatal("Interrupted while loading the repository");
+			}
+			catch (ExecutionException e) {
+				state.output.fatal("Could not load the repository: " + e.getCause());
+			}
+			finally {
+				pool.shutdown();
+			}
+		}
+
+		if (inlineTask) {
+			try {
+				setTask(splitInstances(provided), splitInstances(wanted));
+			}
+			catch (IllegalArgumentException e) {
+				// Requests with a bad task must not stop the process serving them
+				if (shared != null)
+					throw e;
+				state.output.fatal(e.getMessage(), provided == null ? wantedParam : providedParam);
+			}
+		}
 
 		double[] mockQos = new double[4];
 		mockQos[TIME] = 0;
@@ -91,13 +191,136 @@ public class WSCInitializer extends GPInitializer {
 		mockQos[AVAILABILITY] = 1;
 		mockQos[RELIABILITY] = 1;
 
-		populateTaxonomyTree();
 		relevant = getRelevantServices(serviceMap, taskInput, taskOutput);
+		if (relevant == null) {
+			String message = "It is impossible to perform a composition using the services and settings provided.";
+			// A batch carries on with its other tasks
+			if (shared != null)
+				throw new IllegalStateException(message);
+			System.out.println(message);
+			System.exit(0);
+		}
 		mapServicesToIndices(relevant,serviceToIndexMap);
 		calculateNormalisationBounds(relevant);
+
+		if (hash != null) {
+			try {
+				WSCSnapshot.write(this, snapshotFile, hash);
+			}
+			catch (IOException e) {
+				state.output.warning("Could not write repository snapshot: " + e, snapshotParam);
+			}
+		}
+	}
+
+	/**
+	 * Loads the service repository and taxonomy in the given files, to be
+	 * shared by all initializers set up with the same files from then on.
+	 * These then only load their task, which lets a batch of tasks be run
+	 * against a repository loaded once. The shared repository is only ever
+	 * read, so runs using it can proceed concurrently.
+	 *
+	 * @param servicesFile
+	 * @param taxonomyFile
+	 * @param threads number of threads used for loading
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	public static void shareRepository(String servicesFile, String taxonomyFile, int threads)
+			throws InterruptedException, ExecutionException {
+		synchronized (sharedRepositories) {
+			String key = servicesFile + File.pathSeparator + taxonomyFile;
+			if (sharedRepositories.containsKey(key))
+				return;
+			WSCInitializer repository = new WSCInitializer();
+			ForkJoinPool pool = new ForkJoinPool(threads);
+			try {
+				repository.loadRepository(pool, servicesFile, taxonomyFile, null);
+			}
+			finally {
+				pool.shutdown();
+			}
+			sharedRepositories.put(key, repository);
+		}
+	}
+
+	private static WSCInitializer getSharedRepository(String servicesFile, String taxonomyFile) {
+		synchronized (sharedRepositories) {
+			return sharedRepositories.get(servicesFile + File.pathSeparator + taxonomyFile);
+		}
+	}
+
+	/**
+	 * Loads the repository in stages. The service and task files are parsed
+	 * in the pool while the taxonomy is parsed and indexed on the calling
+	 * thread. Once the taxonomy is ready, service instances are mapped to
+	 * concepts and the taxonomy is populated with service outputs, both as
+	 * fork-join tasks.
+	 *
+	 * @param pool
+	 * @param servicesFile
+	 * @param taxonomyFile
+	 * @param taskFile null to load the repository alone
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	private void loadRepository(ForkJoinPool pool, final String servicesFile, String taxonomyFile, final String taskFile)
+			throws InterruptedException, ExecutionException {
+		Future<List<ServiceDescription>> services = pool.submit(new Callable<List<ServiceDescription>>() {
+			@Override
+			public List<ServiceDescription> call() {
+				return readWSCServiceFile(servicesFile);
+			}
+		});
+		final Set<String> provided = new HashSet<String>();
+		final Set<String> wanted = new HashSet<String>();
+		Future<?> task = null;
+		if (taskFile != null) {
+			task = pool.submit(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						readWSCTaskFile(taskFile, provided, wanted);
+					}
+					catch (XMLStreamException e) {
+						System.out.println("Task file parsing failed...");
+						e.printStackTrace();
+					}
+					catch (IOException e) {
+						System.out.println("Task file parsing failed...");
+						e.printStackTrace();
+					}
+				}
+			});
+		}
+
+		// Instances can only be converted to concept IDs once the taxonomy is indexed
+		parseWSCTaxonomyFile(taxonomyFile);
+		indexTaxonomy();
+
+		addServices(pool, services.get());
+		if (task != null) {
+			task.get();
+			taskInput = findConceptsForInstances(provided);
+			taskOutput = findConceptsForInstances(wanted);
+		}
+		populateTaxonomyTree(pool);
+	}
+
+	/**
+	 * Discards whatever a partially read snapshot left behind.
+	 */
+	private void clearRepository() {
+		serviceMap.clear();
+		serviceToIndexMap.clear();
+		taxonomyMap.clear();
+		taxonomyNodes = null;
+		producers = null;
+		subtreeProducers = null;
+		relevant = null;
 	}
 
-	private void mapServicesToIndices(List<Service> relevant, Map<String,Integer> serviceToIndexMap) {
+	void mapServicesToIndices(List<Service> relevant, Map<String,Integer> serviceToIndexMap) {
 		int i = 0;
 		for (Service r : relevant) {
 			serviceToIndexMap.put(r.getName(), i++);
@@ -112,11 +335,10 @@ public class WSCInitializer extends GPInitializer {
 	 * @param searchSet
 	 * @return true if search set subsumed by input set, false otherwise.
 	 */
-	public boolean isSubsumed(Set<String> inputs, Set<String> searchSet) {
+	public boolean isSubsumed(BitSet inputs, BitSet searchSet) {
 		boolean satisfied = true;
-		for (String input : inputs) {
-			Set<String> subsumed = taxonomyMap.get(input).getSubsumedConcepts();
-			if (!isIntersection( searchSet, subsumed )) {
+		for (int input = inputs.nextSetBit(0); input >= 0; input = inputs.nextSetBit(input + 1)) {
+			if (!isIntersection(searchSet, taxonomyNodes[input])) {
 				satisfied = false;
 				break;
 			}
@@ -124,139 +346,256 @@ public class WSCInitializer extends GPInitializer {
 		return satisfied;
 	}
 
-    private static boolean isIntersection( Set<String> a, Set<String> b ) {
-        for ( String v1 : a ) {
-            if ( b.contains( v1 ) ) {
-                return true;
-            }
-        }
-        return false;
-    }
+	/**
+	 * Checks whether any concept in the search set falls in the subtree of
+	 * the given node. Since subtrees are contiguous ID ranges, this only
+	 * needs the first concept in the set from the node's own ID onwards.
+	 */
+	private static boolean isIntersection(BitSet searchSet, TaxonomyNode n) {
+		if (n.descendants != null)
+			return n.descendants.intersects(searchSet);
+		int next = searchSet.nextSetBit(n.id);
+		return next >= 0 && next <= n.lastDescendant;
+	}
+
+	/**
+	 * Builds the subsumption index for the taxonomy. Nodes are numbered in
+	 * pre-order, so the subtree of each node is the contiguous range of IDs
+	 * between its own ID and its last descendant's. If some node has more than
+	 * one parent the ranges no longer hold, so each node's descendant set is
+	 * also computed explicitly.
+	 */
+	void indexTaxonomy() {
+		taxonomyNodes = new TaxonomyNode[taxonomyMap.size()];
+		boolean isTree = true;
+		int nextId = 0;
+
+		Deque<TaxonomyNode> stack = new ArrayDeque<TaxonomyNode>();
+		for (TaxonomyNode root : taxonomyMap.values()) {
+			if (root.parents.size() > 1)
+				isTree = false;
+			if (!root.parents.isEmpty())
+				continue;
+
+			stack.push(root);
+			while (!stack.isEmpty()) {
+				TaxonomyNode current = stack.pop();
+				if (current.id != -1)
+					continue;
+				current.id = nextId;
+				taxonomyNodes[nextId++] = current;
+				for (int i = current.children.size() - 1; i >= 0; i--)
+					stack.push(current.children.get(i));
+			}
+		}
+
+		// Children always have greater IDs than their parent in a tree
+		for (int i = nextId - 1; i >= 0; i--) {
+			TaxonomyNode n = taxonomyNodes[i];
+			n.lastDescendant = n.id;
+			for (TaxonomyNode child : n.children) {
+				if (child.lastDescendant > n.lastDescendant)
+					n.lastDescendant = child.lastDescendant;
+			}
+		}
+
+		if (!isTree)
+			indexDescendants();
+	}
 
 	/**
-	 * Populates the taxonomy tree by associating services to the
-	 * nodes in the tree.
+	 * Computes the explicit descendant set of every taxonomy node, visiting
+	 * children before their parents.
 	 */
-	private void populateTaxonomyTree() {
-		for (Service s: serviceMap.values()) {
-			addServiceToTaxonomyTree(s);
+	void indexDescendants() {
+		for (TaxonomyNode current : getBottomUpOrder()) {
+			current.descendants = new BitSet(taxonomyNodes.length);
+			current.descendants.set(current.id);
+			for (TaxonomyNode child : current.children)
+				current.descendants.or(child.descendants);
 		}
 	}
 
-	private void addServiceToTaxonomyTree(Service s) {
-		// Populate outputs
-	    Set<TaxonomyNode> seenConceptsOutput = new HashSet<TaxonomyNode>();
-		for (String outputVal : s.getOutputs()) {
-			TaxonomyNode n = taxonomyMap.get(outputVal);
-			s.getTaxonomyOutputs().add(n);
-
-			// Also add output to all parent nodes
-			Queue<TaxonomyNode> queue = new LinkedList<TaxonomyNode>();
-			queue.add( n );
-
-			while (!queue.isEmpty()) {
-			    TaxonomyNode current = queue.poll();
-		        seenConceptsOutput.add( current );
-		        current.serviceOutputs.addAll(s.getOutputs());
-		        for (TaxonomyNode parent : current.parents) {
-		            if (!seenConceptsOutput.contains( parent )) {
-		                queue.add(parent);
-		                seenConceptsOutput.add(parent);
-		            }
-		        }
+	/**
+	 * Lists the taxonomy nodes so that every node comes after all of its
+	 * children.
+	 *
+	 * @return nodes, children first
+	 */
+	private List<TaxonomyNode> getBottomUpOrder() {
+		List<TaxonomyNode> order = new ArrayList<TaxonomyNode>(taxonomyNodes.length);
+		int[] pending = new int[taxonomyNodes.length];
+		Queue<TaxonomyNode> queue = new LinkedList<TaxonomyNode>();
+		for (TaxonomyNode n : taxonomyNodes) {
+			pending[n.id] = n.children.size();
+			if (n.children.isEmpty())
+				queue.add(n);
+		}
+
+		while (!queue.isEmpty()) {
+			TaxonomyNode current = queue.poll();
+			order.add(current);
+			for (TaxonomyNode parent : current.parents) {
+				if (--pending[parent.id] == 0)
+					queue.add(parent);
 			}
 		}
+		return order;
+	}
+
+	void populateTaxonomyTree() {
+		populateTaxonomyTree(ForkJoinPool.commonPool());
 	}
 
 	/**
-	 * Converts input, output, and service instance values to their corresponding
+	 * Associates services to the concepts in the taxonomy, building the
+	 * inverted index from each concept to the services producing it, and to
+	 * the services producing any concept it subsumes. The index only holds
+	 * service positions, so its size grows with the number of services and
+	 * the depth of the taxonomy, but not with the number of concepts.
+	 *
+	 * @param pool
+	 */
+	private void populateTaxonomyTree(ForkJoinPool pool) {
+		List<Service> services = new ArrayList<Service>(serviceMap.values());
+		producers = indexByConcept(services, true);
+		subtreeProducers = new int[taxonomyNodes.length][];
+		final int[] none = new int[0];
+		ParallelLoop.run(pool, taxonomyNodes.length, new ParallelLoop.Body() {
+			@Override
+			public void run(int c) {
+				TaxonomyNode n = taxonomyNodes[c];
+				BitSet found = new BitSet();
+				if (n.descendants != null) {
+					for (int d = n.descendants.nextSetBit(0); d >= 0; d = n.descendants.nextSetBit(d + 1))
+						for (int s : producers[d])
+							found.set(s);
+				}
+				else {
+					for (int d = n.id; d <= n.lastDescendant; d++)
+						for (int s : producers[d])
+							found.set(s);
+				}
+				subtreeProducers[c] = found.isEmpty() ? none : toArray(found);
+			}
+		});
+	}
+
+	private static int[] toArray(BitSet set) {
+		int[] values = new int[set.cardinality()];
+		int i = 0;
+		for (int v = set.nextSetBit(0); v >= 0; v = set.nextSetBit(v + 1))
+			values[i++] = v;
+		return values;
+	}
+
+	/**
+	 * Converts instance values to the IDs of their corresponding
 	 * ontological parent.
+	 *
+	 * @param instances
+	 * @return set of concept IDs
 	 */
-	private void findConceptsForInstances() {
-		Set<String> temp = new HashSet<String>();
-
-		for (String s : taskInput)
-			temp.add(taxonomyMap.get(s).parents.get(0).value);
-		taskInput.clear();
-		taskInput.addAll(temp);
-
-		temp.clear();
-		for (String s : taskOutput)
-				temp.add(taxonomyMap.get(s).parents.get(0).value);
-		taskOutput.clear();
-		taskOutput.addAll(temp);
-
-		for (Service s : serviceMap.values()) {
-			temp.clear();
-			Set<String> inputs = s.getInputs();
-			for (String i : inputs)
-				temp.add(taxonomyMap.get(i).parents.get(0).value);
-			inputs.clear();
-			inputs.addAll(temp);
-
-			temp.clear();
-			Set<String> outputs = s.getOutputs();
-			for (String o : outputs)
-				temp.add(taxonomyMap.get(o).parents.get(0).value);
-			outputs.clear();
-			outputs.addAll(temp);
-		}
+	private BitSet findConceptsForInstances(Collection<String> instances) {
+		BitSet concepts = new BitSet(taxonomyNodes.length);
+		for (String i : instances)
+			concepts.set(taxonomyMap.get(i).parents.get(0).id);
+		return concepts;
 	}
 
 	/**
 	 * Goes through the service list and retrieves only those services which
 	 * could be part of the composition task requested by the user.
 	 *
+	 * Discovery is done by forward chaining: every service keeps a count of
+	 * its inputs that are not yet satisfied, and each concept that becomes
+	 * available (as a task input or as the output of a discovered service)
+	 * satisfies the inputs it is subsumed by, i.e. itself and its ancestors in
+	 * the taxonomy. Ancestors that are already satisfied are not revisited,
+	 * so the whole discovery runs in time linear in the number of service
+	 * inputs and outputs.
+	 *
 	 * @param serviceMap
-	 * @return relevant services
+	 * @return relevant services, or null if they cannot produce the outputs
 	 */
-	private List<Service> getRelevantServices(Map<String,Service> serviceMap, Set<String> inputs, Set<String> outputs) {
-		// Copy service map values to retain original
-		Collection<Service> services = new ArrayList<Service>(serviceMap.values());
-
-		Set<String> cSearch = new HashSet<String>(inputs);
-		Set<Service> sSet = new HashSet<Service>();
-		Set<Service> sFound = discoverService(services, cSearch);
-		while (!sFound.isEmpty()) {
-			sSet.addAll(sFound);
-			services.removeAll(sFound);
-			for (Service s: sFound) {
-				cSearch.addAll(s.getOutputs());
+	List<Service> getRelevantServices(Map<String,Service> serviceMap, BitSet inputs, BitSet outputs) {
+		List<Service> services = new ArrayList<Service>(serviceMap.values());
+		int[][] consumers = indexByConcept(services, false);
+		int[] unsatisfied = new int[services.size()];
+
+		List<Service> result = new ArrayList<Service>();
+		Queue<Integer> found = new LinkedList<Integer>();
+		for (int s = 0; s < services.size(); s++) {
+			unsatisfied[s] = services.get(s).getInputs().cardinality();
+			if (unsatisfied[s] == 0)
+				found.add(s);
+		}
+
+		BitSet cSearch = new BitSet(taxonomyNodes.length);
+		BitSet satisfiedConcepts = new BitSet(taxonomyNodes.length);
+		Queue<TaxonomyNode> queue = new LinkedList<TaxonomyNode>();
+		BitSet newConcepts = inputs;
+		while (true) {
+			for (int c = newConcepts.nextSetBit(0); c >= 0; c = newConcepts.nextSetBit(c + 1)) {
+				if (cSearch.get(c))
+					continue;
+				cSearch.set(c);
+
+				// Satisfy the concept itself and all of its ancestors
+				queue.add(taxonomyNodes[c]);
+				while (!queue.isEmpty()) {
+					TaxonomyNode current = queue.poll();
+					if (satisfiedConcepts.get(current.id))
+						continue;
+					satisfiedConcepts.set(current.id);
+					for (int s : consumers[current.id]) {
+						if (--unsatisfied[s] == 0)
+							found.add(s);
+					}
+					queue.addAll(current.parents);
+				}
 			}
-			sFound.clear();
-			sFound = discoverService(services, cSearch);
+
+			if (found.isEmpty())
+				break;
+			Service s = services.get(found.poll());
+			result.add(s);
+			newConcepts = s.getOutputs();
 		}
 
-		if (isSubsumed(outputs, cSearch)) {
-			List<Service> result = new ArrayList<Service>();
-			result.addAll(sSet);
+		if (isSubsumed(outputs, cSearch))
 			return result;
-		}
-		else {
-			String message = "It is impossible to perform a composition using the services and settings provided.";
-			System.out.println(message);
-			System.exit(0);
+		else
 			return null;
-		}
 	}
 
 	/**
-	 * Discovers all services from the provided collection whose
-	 * input can be satisfied either (a) by the input provided in
-	 * searchSet or (b) by the output of services whose input is
-	 * satisfied by searchSet (or a combination of (a) and (b)).
+	 * Builds an inverted index from each concept to the services that take
+	 * it as an input, or that produce it as an output.
 	 *
 	 * @param services
-	 * @param searchSet
-	 * @return set of discovered services
+	 * @param outputs whether to index the outputs rather than the inputs
+	 * @return positions in the service list, in ascending order, indexed by concept ID
 	 */
-	private Set<Service> discoverService(Collection<Service> services, Set<String> searchSet) {
-		Set<Service> found = new HashSet<Service>();
-		for (Service s: services) {
-			if (isSubsumed(s.getInputs(), searchSet))
-				found.add(s);
+	private int[][] indexByConcept(List<Service> services, boolean outputs) {
+		int[] counts = new int[taxonomyNodes.length];
+		for (Service s : services) {
+			BitSet concepts = outputs ? s.getOutputs() : s.getInputs();
+			for (int i = concepts.nextSetBit(0); i >= 0; i = concepts.nextSetBit(i + 1))
+				counts[i]++;
+		}
+
+		int[][] index = new int[taxonomyNodes.length][];
+		int[] none = new int[0];
+		for (int c = 0; c < index.length; c++)
+			index[c] = counts[c] == 0 ? none : new int[counts[c]];
+		Arrays.fill(counts, 0);
+		for (int s = 0; s < services.size(); s++) {
+			BitSet concepts = outputs ? services.get(s).getOutputs() : services.get(s).getInputs();
+			for (int i = concepts.nextSetBit(0); i >= 0; i = concepts.nextSetBit(i + 1))
+				index[i][counts[i]++] = s;
 		}
-		return found;
+		return index;
 	}
 
 	/**
@@ -265,168 +604,280 @@ public class WSCInitializer extends GPInitializer {
 	 *
 	 * @param fileName
 	 */
-	private void parseWSCServiceFile(String fileName) {
+	void parseWSCServiceFile(String fileName) {
+		addServices(ForkJoinPool.commonPool(), readWSCServiceFile(fileName));
+	}
+
+	/**
+	 * Creates the described services, mapping their instances to concepts in
+	 * parallel, and adds them to the service map in the order they were read.
+	 *
+	 * @param pool
+	 * @param descriptions
+	 */
+	private void addServices(ForkJoinPool pool, final List<ServiceDescription> descriptions) {
+		final Service[] services = new Service[descriptions.size()];
+		ParallelLoop.run(pool, services.length, new ParallelLoop.Body() {
+			@Override
+			public void run(int i) {
+				ServiceDescription d = descriptions.get(i);
+				Service s = new Service(d.name, d.qos, findConceptsForInstances(d.inputs), findConceptsForInstances(d.outputs));
+				BitSet outputs = s.getOutputs();
+				for (int o = outputs.nextSetBit(0); o >= 0; o = outputs.nextSetBit(o + 1))
+					s.getTaxonomyOutputs().add(taxonomyNodes[o]);
+				services[i] = s;
+			}
+		});
+		for (Service s : services)
+			serviceMap.put(s.getName(), s);
+	}
+
+	/**
+	 * Reads the WSC Web service file with the given name. The file is
+	 * streamed, and services are kept with their instance names, as they
+	 * can be read before the taxonomy.
+	 *
+	 * @param fileName
+	 * @return services in file order
+	 */
+	private List<ServiceDescription> readWSCServiceFile(String fileName) {
+		List<ServiceDescription> descriptions = new ArrayList<ServiceDescription>();
         Set<String> inputs = new HashSet<String>();
         Set<String> outputs = new HashSet<String>();
-        double[] qos = new double[4];
+        Set<String> current = null;
+        String name = null;
+        double[] qos = null;
 
+        InputStream in = null;
+        XMLStreamReader reader = null;
         try {
-        	File fXmlFile = new File(fileName);
-        	DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-        	DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
-        	Document doc = dBuilder.parse(fXmlFile);
-
-        	NodeList nList = doc.getElementsByTagName("service");
-
-        	for (int i = 0; i < nList.getLength(); i++) {
-        		org.w3c.dom.Node nNode = nList.item(i);
-        		Element eElement = (Element) nNode;
-
-        		String name = eElement.getAttribute("name");
-
-    		    qos[TIME] = Double.valueOf(eElement.getAttribute("Res"));
-    		    qos[COST] = Double.valueOf(eElement.getAttribute("Pri"));
-    		    qos[AVAILABILITY] = Double.valueOf(eElement.getAttribute("Ava"));
-    		    qos[RELIABILITY] = Double.valueOf(eElement.getAttribute("Rel"));
-
-				// Get inputs
-				org.w3c.dom.Node inputNode = eElement.getElementsByTagName("inputs").item(0);
-				NodeList inputNodes = ((Element)inputNode).getElementsByTagName("instance");
-				for (int j = 0; j < inputNodes.getLength(); j++) {
-					org.w3c.dom.Node in = inputNodes.item(j);
-					Element e = (Element) in;
-					inputs.add(e.getAttribute("name"));
-				}
-
-				// Get outputs
-				org.w3c.dom.Node outputNode = eElement.getElementsByTagName("outputs").item(0);
-				NodeList outputNodes = ((Element)outputNode).getElementsByTagName("instance");
-				for (int j = 0; j < outputNodes.getLength(); j++) {
-					org.w3c.dom.Node out = outputNodes.item(j);
-					Element e = (Element) out;
-					outputs.add(e.getAttribute("name"));
-				}
-
-                Service ws = new Service(name, qos, inputs, outputs);
-                serviceMap.put(name, ws);
-                inputs = new HashSet<String>();
-                outputs = new HashSet<String>();
-                qos = new double[4];
+        	in = new BufferedInputStream(new FileInputStream(fileName));
+        	reader = XMLInputFactory.newInstance().createXMLStreamReader(in);
+
+        	while (reader.hasNext()) {
+        		int event = reader.next();
+        		if (event == XMLStreamConstants.START_ELEMENT) {
+        			String tag = reader.getLocalName();
+        			if (tag.equals("service")) {
+        				name = reader.getAttributeValue(null, "name");
+        				qos = new double[NUM_QOS];
+        				qos[TIME] = getDoubleAttribute(reader, "Res");
+        				qos[COST] = getDoubleAttribute(reader, "Pri");
+        				qos[AVAILABILITY] = getDoubleAttribute(reader, "Ava");
+        				qos[RELIABILITY] = getDoubleAttribute(reader, "Rel");
+        				qos[SUCCESSABILITY] = getDoubleAttribute(reader, "Suc");
+        				qos[LATENCY] = getDoubleAttribute(reader, "Lat");
+        			}
+        			else if (tag.equals("inputs"))
+        				current = inputs;
+        			else if (tag.equals("outputs"))
+        				current = outputs;
+        			else if (tag.equals("instance") && current != null)
+        				current.add(reader.getAttributeValue(null, "name"));
+        		}
+        		else if (event == XMLStreamConstants.END_ELEMENT) {
+        			String tag = reader.getLocalName();
+        			if (tag.equals("inputs") || tag.equals("outputs"))
+        				current = null;
+        			else if (tag.equals("service")) {
+        				descriptions.add(new ServiceDescription(name, qos, new ArrayList<String>(inputs), new ArrayList<String>(outputs)));
+        				inputs.clear();
+        				outputs.clear();
+        			}
+        		}
         	}
         }
         catch(IOException ioe) {
             System.out.println("Service file parsing failed...");
         }
-        catch (ParserConfigurationException e) {
-            System.out.println("Service file parsing failed...");
-		}
-        catch (SAXException e) {
+        catch (XMLStreamException e) {
             System.out.println("Service file parsing failed...");
 		}
+        finally {
+        	closeQuietly(reader, in);
+        }
+        return descriptions;
     }
 
 	/**
 	 * Parses the WSC task file with the given name, extracting input and
-	 * output values to be used as the composition task.
+	 * output values to be used as the composition task. Unlike a standalone
+	 * run, a batch run can't be left to carry on with an empty task, so a
+	 * task file that can't be read fails instead.
 	 *
 	 * @param fileName
+	 * @throws IllegalArgumentException if the file can't be read, wants
+	 *             nothing or names an instance that is not in the taxonomy
 	 */
-	private void parseWSCTaskFile(String fileName) {
+	void parseWSCTaskFile(String fileName) {
+		Set<String> providedInstances = new HashSet<String>();
+		Set<String> wantedInstances = new HashSet<String>();
 		try {
-	    	File fXmlFile = new File(fileName);
-	    	DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-	    	DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
-	    	Document doc = dBuilder.parse(fXmlFile);
-
-	    	org.w3c.dom.Node provided = doc.getElementsByTagName("provided").item(0);
-	    	NodeList providedList = ((Element) provided).getElementsByTagName("instance");
-	    	taskInput = new HashSet<String>();
-	    	for (int i = 0; i < providedList.getLength(); i++) {
-				org.w3c.dom.Node item = providedList.item(i);
-				Element e = (Element) item;
-				taskInput.add(e.getAttribute("name"));
-	    	}
-
-	    	org.w3c.dom.Node wanted = doc.getElementsByTagName("wanted").item(0);
-	    	NodeList wantedList = ((Element) wanted).getElementsByTagName("instance");
-	    	taskOutput = new HashSet<String>();
-	    	for (int i = 0; i < wantedList.getLength(); i++) {
-				org.w3c.dom.Node item = wantedList.item(i);
-				Element e = (Element) item;
-				taskOutput.add(e.getAttribute("name"));
-	    	}
-		}
-		catch (ParserConfigurationException e) {
-            System.out.println("Task file parsing failed...");
-            e.printStackTrace();
-		}
-		catch (SAXException e) {
-            System.out.println("Task file parsing failed...");
-            e.printStackTrace();
+			readWSCTaskFile(fileName, providedInstances, wantedInstances);
+		}
+		catch (XMLStreamException e) {
+			throw new IllegalArgumentException("Could not parse task file " + fileName + ": " + e.getMessage(), e);
 		}
 		catch (IOException e) {
-            System.out.println("Task file parsing failed...");
-            e.printStackTrace();
+			throw new IllegalArgumentException("Could not read task file " + fileName + ": " + e, e);
 		}
+		if (wantedInstances.isEmpty())
+			throw new IllegalArgumentException("Task file " + fileName + " has no wanted instances");
+		setTask(providedInstances, wantedInstances);
 	}
 
 	/**
-	 * Parses the WSC taxonomy file with the given name, building a
-	 * tree-like structure.
+	 * Sets the composition task from the names of its provided and wanted
+	 * instances.
 	 *
-	 * @param fileName
+	 * @param providedInstances
+	 * @param wantedInstances
+	 * @throws IllegalArgumentException if an instance is not in the taxonomy
 	 */
-	private void parseWSCTaxonomyFile(String fileName) {
-		try {
-	    	File fXmlFile = new File(fileName);
-	    	DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-	    	DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
-	    	Document doc = dBuilder.parse(fXmlFile);
-	    	NodeList taxonomyRoots = doc.getChildNodes();
-
-	    	processTaxonomyChildren(null, taxonomyRoots);
+	void setTask(Collection<String> providedInstances, Collection<String> wantedInstances) {
+		for (String i : providedInstances) {
+			if (!taxonomyMap.containsKey(i))
+				throw new IllegalArgumentException("Unknown provided instance: " + i);
 		}
+		for (String i : wantedInstances) {
+			if (!taxonomyMap.containsKey(i))
+				throw new IllegalArgumentException("Unknown wanted instance: " + i);
+		}
+		taskInput = findConceptsForInstances(providedInstances);
+		taskOutput = findConceptsForInstances(wantedInstances);
+	}
 
-		catch (ParserConfigurationException e) {
-            System.err.println("Taxonomy file parsing failed...");
+	// Splits a list of instance names separated by commas or whitespace
+	private static List<String> splitInstances(String names) {
+		List<String> instances = new ArrayList<String>();
+		if (names != null) {
+			for (String name : names.split("[,\\s]+")) {
+				if (!name.isEmpty())
+					instances.add(name);
+			}
 		}
-		catch (SAXException e) {
-            System.err.println("Taxonomy file parsing failed...");
+		return instances;
+	}
+
+	/**
+	 * Reads the instance names of the task inputs and outputs from the WSC
+	 * task file with the given name.
+	 *
+	 * @param fileName
+	 * @param providedInstances set to add the inputs to
+	 * @param wantedInstances set to add the outputs to
+	 * @throws XMLStreamException
+	 * @throws IOException
+	 */
+	private void readWSCTaskFile(String fileName, Set<String> providedInstances, Set<String> wantedInstances)
+			throws XMLStreamException, IOException {
+		Set<String> current = null;
+
+		InputStream in = null;
+		XMLStreamReader reader = null;
+		try {
+			in = new BufferedInputStream(new FileInputStream(fileName));
+			reader = XMLInputFactory.newInstance().createXMLStreamReader(in);
+
+			while (reader.hasNext()) {
+				int event = reader.next();
+				if (event == XMLStreamConstants.START_ELEMENT) {
+					String tag = reader.getLocalName();
+					if (tag.equals("provided"))
+						current = providedInstances;
+					else if (tag.equals("wanted"))
+						current = wantedInstances;
+					else if (tag.equals("instance") && current != null)
+						current.add(reader.getAttributeValue(null, "name"));
+				}
+				else if (event == XMLStreamConstants.END_ELEMENT) {
+					String tag = reader.getLocalName();
+					if (tag.equals("provided") || tag.equals("wanted"))
+						current = null;
+					// Nothing of interest after the task itself
+					else if (tag.equals("task"))
+						break;
+				}
+			}
 		}
-		catch (IOException e) {
-            System.err.println("Taxonomy file parsing failed...");
+		finally {
+			closeQuietly(reader, in);
 		}
 	}
 
 	/**
-	 * Recursive function for recreating taxonomy structure from file.
+	 * Parses the WSC taxonomy file with the given name, building a
+	 * tree-like structure. The file is streamed, keeping the chain of
+	 * enclosing elements on a stack rather than recursing through a
+	 * document tree.
 	 *
-	 * @param parent - Nodes' parent
-	 * @param nodes
+	 * @param fileName
 	 */
-	private void processTaxonomyChildren(TaxonomyNode parent, NodeList nodes) {
-		if (nodes != null && nodes.getLength() != 0) {
-			for (int i = 0; i < nodes.getLength(); i++) {
-				org.w3c.dom.Node ch = nodes.item(i);
-
-			if (!(ch instanceof Text)) {
-				Element currNode = (Element) nodes.item(i);
-				String value = currNode.getAttribute("name");
+	void parseWSCTaxonomyFile(String fileName) {
+		Deque<TaxonomyNode> enclosing = new ArrayDeque<TaxonomyNode>();
+
+		InputStream in = null;
+		XMLStreamReader reader = null;
+		try {
+			in = new BufferedInputStream(new FileInputStream(fileName));
+			reader = XMLInputFactory.newInstance().createXMLStreamReader(in);
+
+			while (reader.hasNext()) {
+				int event = reader.next();
+				if (event == XMLStreamConstants.START_ELEMENT) {
+					// The root element has no name, and becomes the root of the taxonomy
+					String value = reader.getAttributeValue(null, "name");
+					if (value == null)
+						value = "";
+
 					TaxonomyNode taxNode = taxonomyMap.get( value );
 					if (taxNode == null) {
 					    taxNode = new TaxonomyNode(value);
 					    taxonomyMap.put( value, taxNode );
 					}
+					TaxonomyNode parent = enclosing.peek();
 					if (parent != null) {
 					    taxNode.parents.add(parent);
 						parent.children.add(taxNode);
 					}
-
-					NodeList children = currNode.getChildNodes();
-					processTaxonomyChildren(taxNode, children);
+					enclosing.push(taxNode);
+				}
+				else if (event == XMLStreamConstants.END_ELEMENT) {
+					enclosing.pop();
 				}
 			}
 		}
+		catch (XMLStreamException e) {
+            System.err.println("Taxonomy file parsing failed...");
+		}
+		catch (IOException e) {
+            System.err.println("Taxonomy file parsing failed...");
+		}
+		finally {
+			closeQuietly(reader, in);
+		}
+	}
+
+	private static double getDoubleAttribute(XMLStreamReader reader, String name) {
+		String value = reader.getAttributeValue(null, name);
+		if (value == null)
+			return Double.NaN;
+		return Double.parseDouble(value);
+	}
+
+	private static void closeQuietly(XMLStreamReader reader, InputStream in) {
+		try {
+			if (reader != null)
+				reader.close();
+			if (in != null)
+				in.close();
+		}
+		catch (XMLStreamException e) {
+			// Nothing left to read
+		}
+		catch (IOException e) {
+			// Nothing left to read
+		}
 	}
 
 	private void calculateNormalisationBounds(List<Service> services) {
@@ -462,18 +913,48 @@ public class WSCInitializer extends GPInitializer {
 		maxTime *= services.size();
 	}
 
-	public int countInputsSatisfied(Set<String> outputs, Set<String> inputs) {
+	/**
+	 * Counts how many of the given input concepts can be satisfied by the
+	 * given outputs. An input is satisfied if one of the outputs is produced
+	 * by a service that also produces a concept subsumed by the input. The
+	 * producers of the outputs are marked first, after which each input
+	 * looks for a marked service among its subtree producers.
+	 *
+	 * @param outputs
+	 * @param inputs
+	 * @return number of satisfied inputs
+	 */
+	public int countInputsSatisfied(BitSet outputs, BitSet inputs) {
+		if (countCalls)
+			satisfiedCalls.increment();
+		long[] marked = producerScratch.get();
+		if (marked == null || marked.length <= serviceMap.size() >> 6) {
+			marked = new long[(serviceMap.size() >> 6) + 1];
+			producerScratch.set(marked);
+		}
+		int firstWord = marked.length;
+		int lastWord = -1;
+		for (int output = outputs.nextSetBit(0); output >= 0; output = outputs.nextSetBit(output + 1)) {
+			for (int s : producers[output]) {
+				marked[s >> 6] |= 1L << s;
+				firstWord = Math.min(firstWord, s >> 6);
+				lastWord = Math.max(lastWord, s >> 6);
+			}
+		}
+
 		int satisfied = 0;
-		Set<String> candidateInputs = new HashSet<String>(inputs);
-		inputLoop:
-		for (String input : candidateInputs) {
-			for (String output : taxonomyMap.get(input).serviceOutputs) {
-				if (outputs.contains(output)) {
+		for (int input = inputs.nextSetBit(0); input >= 0; input = inputs.nextSetBit(input + 1)) {
+			for (int s : subtreeProducers[input]) {
+				if ((marked[s >> 6] & (1L << s)) != 0) {
 					satisfied++;
-					break inputLoop;
+					break;
 				}
 			}
 		}
+
+		// Leave the scratch space cleared for the next call
+		if (lastWord >= firstWord)
+			Arrays.fill(marked, firstWord, lastWord + 1, 0L);
 		return satisfied;
 	}
 
@@ -481,4 +962,22 @@ public class WSCInitializer extends GPInitializer {
 		Service s = relevant.get(m.nextInt(relevant.size()));
 		return s;
 	}
+
+	/**
+	 * A service as read from the service file, before its instances are
+	 * mapped to concepts.
+	 */
+	private static class ServiceDescription {
+		final String name;
+		final double[] qos;
+		final List<String> inputs;
+		final List<String> outputs;
+
+		ServiceDescription(String name, double[] qos, List<String> inputs, List<String> outputs) {
+			this.name = name;
+			this.qos = qos;
+			this.inputs = inputs;
+			this.outputs = outputs;
+		}
+	}
 }
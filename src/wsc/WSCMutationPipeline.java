@@ -0,0 +1,29 @@
+package wsc;
+
+import ec.EvolutionState;
+import ec.gp.GPNode;
+import ec.gp.koza.MutationPipeline;
+import ec.util.Parameter;
+
+/**
+ * Subtree mutation that only keeps new subtrees that fit where every
+ * sequence they become part of can still run (see Feasibility). New
+ * subtrees that fail the check are rebuilt up to the pipeline's number of
+ * tries, after which the parent is passed on unchanged. Reads its
+ * parameters from the same place as MutationPipeline.
+ */
+public class WSCMutationPipeline extends MutationPipeline {
+	// Set up with the pipeline, since verifyPoints isn't given the state
+	private WSCInitializer init;
+
+	@Override
+	public void setup(final EvolutionState state, final Parameter base) {
+		super.setup(state, base);
+		init = (WSCInitializer) state.initializer;
+	}
+
+	@Override
+	public boolean verifyPoints(final GPNode inner1, final GPNode inner2) {
+		return super.verifyPoints(inner1, inner2) && Feasibility.fits(inner1, inner2, init);
+	}
+}
@@ -0,0 +1,305 @@
+package wsc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import ec.EvolutionState;
+import ec.Evolve;
+import ec.Individual;
+import ec.simple.SimpleStatistics;
+import ec.util.Parameter;
+import ec.util.ParameterDatabase;
+
+/**
+ * Long-running composition server. The service repository is loaded once at
+ * startup and stays in memory, along with the JIT-compiled code, and every
+ * request only loads its own task and runs the GP for it.
+ *
+ * Requests are POSTed (or sent as GET query strings) to /compose as form
+ * fields: provided and wanted give the task's instances, separated by commas
+ * or spaces, and the optional w1 to w7 override the fitness weights, budget
+ * limits the run to the given number of seconds, generations overrides the
+ * number of generations, and seed the random seed. The response is a JSON
+ * object with the best composition found, its fitness and QoS, and how long
+ * the request took. GET /metrics reports the latency over all requests.
+ *
+ * Usage: java wsc.WSCServer [-file params] [-port n] [-threads n]
+ * [-p name=value ...], where the parameters default to wsc.params, the port
+ * to 8080 and the number of requests served at the same time to 1. The
+ * server only listens on the loopback interface.
+ *
+ * The values in a request are checked before its run is set up, so that a
+ * bad request only fails itself. Errors in the parameters file or the -p
+ * overrides are still fatal to the whole server, as ECJ's setup exits on
+ * them.
+ */
+public class WSCServer {
+	private final File paramsFile;
+	private final String[] overrides;
+
+	// Latency over all requests, guarded by the server itself
+	private long requests;
+	private long failures;
+	private long totalNanos;
+	private long maxNanos;
+
+	private WSCServer(File paramsFile, String[] overrides) {
+		this.paramsFile = paramsFile;
+		this.overrides = overrides;
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException, ExecutionException {
+		File paramsFile = new File("wsc.params");
+		int port = 8080;
+		int threads = 1;
+		List<String> overrides = new ArrayList<String>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-file") && i + 1 < args.length)
+				paramsFile = new File(args[++i]);
+			else if (args[i].equals("-port") && i + 1 < args.length)
+				port = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-threads") && i + 1 < args.length)
+				threads = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-p") && i + 1 < args.length) {
+				overrides.add(args[i]);
+				overrides.add(args[++i]);
+			}
+			else {
+				System.err.println("Usage: java wsc.WSCServer [-file params] [-port n] [-threads n] [-p name=value ...]");
+				System.exit(1);
+			}
+		}
+
+		String[] pairs = overrides.toArray(new String[overrides.size()]);
+		ParameterDatabase parameters = new ParameterDatabase(paramsFile, pairs);
+		WSCInitializer.shareRepository(parameters.getString(new Parameter("composition-services"), null),
+				parameters.getString(new Parameter("composition-taxonomy"), null), Runtime.getRuntime().availableProcessors());
+
+		final WSCServer server = new WSCServer(paramsFile, pairs);
+		HttpServer http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		http.createContext("/compose", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				server.compose(exchange);
+			}
+		});
+		http.createContext("/metrics", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				server.metrics(exchange);
+			}
+		});
+		http.setExecutor(Executors.newFixedThreadPool(threads));
+		http.start();
+		System.out.println("Serving compositions on http://" + http.getAddress().getHostString() + ":" + http.getAddress().getPort() + "/compose");
+	}
+
+	private void compose(HttpExchange exchange) throws IOException {
+		long start = System.nanoTime();
+		String response;
+		int status = 200;
+		try {
+			response = run(readFields(exchange), start);
+		}
+		catch (IllegalArgumentException e) {
+			status = 400;
+			response = "{\"error\": " + quote(String.valueOf(e.getMessage())) + "}";
+		}
+		catch (IllegalStateException e) {
+			// The services cannot produce the wanted outputs
+			status = 422;
+			response = "{\"error\": " + quote(String.valueOf(e.getMessage())) + "}";
+		}
+		catch (RuntimeException e) {
+			status = 500;
+			response = "{\"error\": " + quote(e.toString()) + "}";
+		}
+		catch (IOException e) {
+			// e.g. the run's statistics file could not be created
+			status = 500;
+			response = "{\"error\": " + quote(e.toString()) + "}";
+		}
+
+		long nanos = System.nanoTime() - start;
+		synchronized (this) {
+			requests++;
+			if (status != 200)
+				failures++;
+			totalNanos += nanos;
+			maxNanos = Math.max(maxNanos, nanos);
+		}
+		send(exchange, status, response);
+	}
+
+	/**
+	 * Runs the GP for the task in the request fields, and describes the
+	 * best composition found as JSON.
+	 */
+	private String run(Map<String, String> fields, long start) throws IOException {
+		String provided = fields.get("provided");
+		String wanted = fields.get("wanted");
+		if (provided == null || wanted == null)
+			throw new IllegalArgumentException("Both provided and wanted instances are needed");
+
+		ParameterDatabase db = new ParameterDatabase(paramsFile, overrides);
+		Parameter taskParam = new Parameter("composition-task");
+		db.set(taskParam.push(WSCInitializer.P_PROVIDED), provided);
+		db.set(taskParam.push(WSCInitializer.P_WANTED), wanted);
+		// Check every value here, as ECJ would exit the whole server on a bad one
+		for (int w = 1; w <= 7; w++) {
+			String weight = fields.get("w" + w);
+			if (weight != null) {
+				double value = Double.parseDouble(weight);
+				if (Double.isNaN(value) || Double.isInfinite(value))
+					throw new IllegalArgumentException("Weight w" + w + " must be a finite number");
+				db.set(new Parameter("fitness-weight" + w), Double.toString(value));
+			}
+		}
+		if (fields.containsKey("generations")) {
+			int generations = Integer.parseInt(fields.get("generations"));
+			if (generations < 1)
+				throw new IllegalArgumentException("Generations must be at least 1");
+			db.set(new Parameter("generations"), Integer.toString(generations));
+		}
+		if (fields.containsKey("seed")) {
+			int seed = Integer.parseInt(fields.get("seed"));
+			if (seed == 0)
+				throw new IllegalArgumentException("Seed must not be 0");
+			db.set(new Parameter("seed.0"), Integer.toString(seed));
+		}
+		// Without a budget in the request, the evaluator keeps the one from the parameters (if any)
+		long deadline = Long.MAX_VALUE;
+		boolean budget = fields.containsKey("budget");
+		if (budget) {
+			double seconds = Double.parseDouble(fields.get("budget"));
+			if (!(seconds > 0.0) || Double.isInfinite(seconds))
+				throw new IllegalArgumentException("Budget must be a positive number of seconds");
+			deadline = start + (long) (seconds * 1e9);
+		}
+
+		// Runs only report back through the response
+		File stat = File.createTempFile("wsc-request-", ".stat");
+		db.set(new Parameter("stat.file"), stat.getPath());
+
+		EvolutionState state = Evolve.initialize(db, 0);
+		try {
+			state.startFresh();
+			// The evaluator ends the run by the deadline, rather than after the generation that passes it;
+			// it only exists once startFresh has set the run up, which counts against the budget
+			if (budget && state.evaluator instanceof WSCEvaluator)
+				((WSCEvaluator) state.evaluator).deadline = deadline;
+			long evolveStart = System.nanoTime();
+			int result;
+			do {
+				result = state.evolve();
+			}
+			while (result == EvolutionState.R_NOTDONE && System.nanoTime() < deadline);
+			state.finish(result);
+			long end = System.nanoTime();
+
+			Individual best = ((SimpleStatistics) state.statistics).best_of_run[0];
+			StringBuilder json = new StringBuilder();
+			json.append("{\"fitness\": ").append(best.fitness.fitness());
+			json.append(", \"composition\": ").append(quote(WSC.toLisp(best, (WSCInitializer) state.initializer)));
+			if (best.fitness instanceof WSCFitness) {
+				double[] c = ((WSCFitness) best.fitness).components;
+				json.append(", \"qos\": {\"availability\": ").append(c[WSCFitness.AVAILABILITY]);
+				json.append(", \"reliability\": ").append(c[WSCFitness.RELIABILITY]);
+				json.append(", \"time\": ").append(c[WSCFitness.TIME]);
+				json.append(", \"cost\": ").append(c[WSCFitness.COST]).append("}");
+			}
+			json.append(", \"generations\": ").append(state.generation);
+			json.append(", \"latency\": {\"setupMillis\": ").append(millis(evolveStart - start));
+			json.append(", \"evolveMillis\": ").append(millis(end - evolveStart));
+			json.append(", \"totalMillis\": ").append(millis(end - start)).append("}}");
+			return json.toString();
+		}
+		finally {
+			Evolve.cleanup(state);
+			stat.delete();
+		}
+	}
+
+	private void metrics(HttpExchange exchange) throws IOException {
+		String response;
+		synchronized (this) {
+			response = "{\"requests\": " + requests + ", \"failures\": " + failures
+					+ ", \"meanMillis\": " + (requests == 0 ? "0" : millis(totalNanos / requests))
+					+ ", \"maxMillis\": " + millis(maxNanos) + "}";
+		}
+		send(exchange, 200, response);
+	}
+
+	// Reads the form fields from the query string and, for POST requests, the body
+	private static Map<String, String> readFields(HttpExchange exchange) throws IOException {
+		Map<String, String> fields = new HashMap<String, String>();
+		addFields(exchange.getRequestURI().getRawQuery(), fields);
+		if (exchange.getRequestMethod().equalsIgnoreCase("POST")) {
+			InputStream in = exchange.getRequestBody();
+			ByteArrayOutputStream body = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			for (int n = in.read(buffer); n >= 0; n = in.read(buffer))
+				body.write(buffer, 0, n);
+			addFields(body.toString("UTF-8"), fields);
+		}
+		return fields;
+	}
+
+	private static void addFields(String form, Map<String, String> fields) throws IOException {
+		if (form == null)
+			return;
+		for (String pair : form.split("&")) {
+			int split = pair.indexOf('=');
+			if (split > 0)
+				fields.put(URLDecoder.decode(pair.substring(0, split), "UTF-8"), URLDecoder.decode(pair.substring(split + 1), "UTF-8"));
+		}
+	}
+
+	private static void send(HttpExchange exchange, int status, String response) throws IOException {
+		byte[] bytes = response.getBytes("UTF-8");
+		exchange.getResponseHeaders().set("Content-Type", "application/json");
+		exchange.sendResponseHeaders(status, bytes.length);
+		OutputStream out = exchange.getResponseBody();
+		try {
+			out.write(bytes);
+		}
+		finally {
+			out.close();
+		}
+	}
+
+	private static String millis(long nanos) {
+		return String.format(Locale.US, "%.3f", nanos / 1e6);
+	}
+
+	private static String quote(String value) {
+		StringBuilder s = new StringBuilder("\"");
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\')
+				s.append('\\').append(c);
+			else if (c < ' ')
+				s.append(String.format("\\u%04x", (int) c));
+			else
+				s.append(c);
+		}
+		return s.append('"').toString();
+	}
+}
@@ -0,0 +1,302 @@
+package wsc;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary snapshot of the fully preprocessed repository state of a
+ * WSCInitializer: taxonomy and its subsumption index, services, task,
+ * relevant services and normalisation bounds. A snapshot records the
+ * content hash of the files it was built from, and is only loaded if
+ * those files have not changed since. Snapshots are read through a
+ * memory-mapped buffer.
+ *
+ * Layout (all values big-endian):
+ *   header:   magic, version, hash length, hash bytes
+ *   taxonomy: concept count, then per concept in ID order: name, parent
+ *             count, parent IDs, last descendant ID, producers, subtree
+ *             producers
+ *   services: service count, then per service: name, QoS values, inputs, outputs
+ *   task:     inputs, outputs
+ *   relevant: count, then service positions in the service section
+ *   bounds:   max. availability, max. reliability, min./max. time, min./max. cost
+ * Strings are stored as a byte count followed by UTF-8 bytes, concept sets
+ * as a word count followed by the words of the BitSet, and producers as a
+ * count followed by positions in the service section.
+ */
+public class WSCSnapshot {
+	private static final int MAGIC = 0x57534353; // "WSCS"
+	private static final int VERSION = 2;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * Computes the content hash of the given files, in order.
+	 *
+	 * @param fileNames
+	 * @return SHA-256 hash
+	 * @throws IOException
+	 */
+	public static byte[] hashFiles(String... fileNames) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+
+		byte[] buffer = new byte[1 << 16];
+		for (String fileName : fileNames) {
+			InputStream in = new FileInputStream(fileName);
+			try {
+				int read;
+				while ((read = in.read(buffer)) != -1)
+					digest.update(buffer, 0, read);
+			}
+			finally {
+				in.close();
+			}
+			// Keep file boundaries in the hash
+			digest.update((byte) 0);
+		}
+		return digest.digest();
+	}
+
+	/**
+	 * Loads the snapshot in the given file into the initializer, provided
+	 * that it exists and was built from files with the given hash.
+	 *
+	 * @param init
+	 * @param file
+	 * @param hash
+	 * @return true if the snapshot was loaded, false if it is missing or stale
+	 * @throws IOException
+	 */
+	public static boolean load(WSCInitializer init, File file, byte[] hash) throws IOException {
+		if (!file.isFile())
+			return false;
+
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (buf.getInt() != MAGIC || buf.getInt() != VERSION)
+				return false;
+			byte[] storedHash = new byte[buf.getInt()];
+			buf.get(storedHash);
+			if (!Arrays.equals(storedHash, hash))
+				return false;
+
+			// Taxonomy
+			int numConcepts = buf.getInt();
+			TaxonomyNode[] nodes = new TaxonomyNode[numConcepts];
+			int[][] producers = new int[numConcepts][];
+			int[][] subtreeProducers = new int[numConcepts][];
+			int[][] parentIds = new int[numConcepts][];
+			boolean isTree = true;
+			for (int id = 0; id < numConcepts; id++) {
+				TaxonomyNode n = new TaxonomyNode(readString(buf));
+				n.id = id;
+				nodes[id] = n;
+				parentIds[id] = new int[buf.getInt()];
+				if (parentIds[id].length > 1)
+					isTree = false;
+				for (int i = 0; i < parentIds[id].length; i++)
+					parentIds[id][i] = buf.getInt();
+				n.lastDescendant = buf.getInt();
+				producers[id] = readInts(buf);
+				subtreeProducers[id] = readInts(buf);
+				init.taxonomyMap.put(n.value, n);
+			}
+			// Parents only come before their children in a tree, so link the nodes once all exist
+			for (TaxonomyNode n : nodes) {
+				for (int parentId : parentIds[n.id]) {
+					TaxonomyNode parent = nodes[parentId];
+					n.parents.add(parent);
+					parent.children.add(n);
+				}
+			}
+			init.taxonomyNodes = nodes;
+			init.producers = producers;
+			init.subtreeProducers = subtreeProducers;
+			if (!isTree)
+				init.indexDescendants();
+
+			// Services
+			int numServices = buf.getInt();
+			Service[] services = new Service[numServices];
+			for (int i = 0; i < numServices; i++) {
+				String name = readString(buf);
+				double[] qos = new double[WSCInitializer.NUM_QOS];
+				for (int j = 0; j < qos.length; j++)
+					qos[j] = buf.getDouble();
+				Service s = new Service(name, qos, readBitSet(buf), readBitSet(buf));
+				BitSet outputs = s.getOutputs();
+				for (int o = outputs.nextSetBit(0); o >= 0; o = outputs.nextSetBit(o + 1))
+					s.getTaxonomyOutputs().add(nodes[o]);
+				services[i] = s;
+				init.serviceMap.put(name, s);
+			}
+
+			// Task and relevant services
+			init.taskInput = readBitSet(buf);
+			init.taskOutput = readBitSet(buf);
+			int numRelevant = buf.getInt();
+			List<Service> relevant = new ArrayList<Service>(numRelevant);
+			for (int i = 0; i < numRelevant; i++)
+				relevant.add(services[buf.getInt()]);
+			init.relevant = relevant;
+			init.mapServicesToIndices(relevant, init.serviceToIndexMap);
+
+			// Normalisation bounds
+			init.maxAvailability = buf.getDouble();
+			init.maxReliability = buf.getDouble();
+			init.minTime = buf.getDouble();
+			init.maxTime = buf.getDouble();
+			init.minCost = buf.getDouble();
+			init.maxCost = buf.getDouble();
+			return true;
+		}
+		finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Writes the preprocessed state of the initializer to the given file,
+	 * recording the given hash. The snapshot is first written to a temporary
+	 * file and then moved into place, so that concurrent runs never see a
+	 * partially written snapshot.
+	 *
+	 * @param init
+	 * @param file
+	 * @param hash
+	 * @throws IOException
+	 */
+	public static void write(WSCInitializer init, File file, byte[] hash) throws IOException {
+		File dir = file.getAbsoluteFile().getParentFile();
+		File temp = File.createTempFile(file.getName(), ".tmp", dir);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 1 << 16));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(hash.length);
+			out.write(hash);
+
+			// Taxonomy
+			TaxonomyNode[] nodes = init.taxonomyNodes;
+			out.writeInt(nodes.length);
+			for (TaxonomyNode n : nodes) {
+				writeString(out, n.value);
+				out.writeInt(n.parents.size());
+				for (TaxonomyNode parent : n.parents)
+					out.writeInt(parent.id);
+				out.writeInt(n.lastDescendant);
+				writeInts(out, init.producers[n.id]);
+				writeInts(out, init.subtreeProducers[n.id]);
+			}
+
+			// Services, remembering where each one is written
+			out.writeInt(init.serviceMap.size());
+			List<Service> services = new ArrayList<Service>(init.serviceMap.values());
+			for (Service s : services) {
+				writeString(out, s.getName());
+				double[] qos = s.getQos();
+				for (int j = 0; j < WSCInitializer.NUM_QOS; j++)
+					out.writeDouble(qos[j]);
+				writeBitSet(out, s.getInputs());
+				writeBitSet(out, s.getOutputs());
+			}
+
+			// Task and relevant services
+			writeBitSet(out, init.taskInput);
+			writeBitSet(out, init.taskOutput);
+			Map<Service, Integer> positions = new HashMap<Service, Integer>();
+			for (int i = 0; i < services.size(); i++)
+				positions.put(services.get(i), i);
+			out.writeInt(init.relevant.size());
+			for (Service s : init.relevant)
+				out.writeInt(positions.get(s));
+
+			// Normalisation bounds
+			out.writeDouble(init.maxAvailability);
+			out.writeDouble(init.maxReliability);
+			out.writeDouble(init.minTime);
+			out.writeDouble(init.maxTime);
+			out.writeDouble(init.minCost);
+			out.writeDouble(init.maxCost);
+		}
+		finally {
+			out.close();
+		}
+
+		try {
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (IOException e) {
+			temp.delete();
+			throw e;
+		}
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		byte[] bytes = s.getBytes(UTF8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(ByteBuffer buf) {
+		byte[] bytes = new byte[buf.getInt()];
+		buf.get(bytes);
+		return new String(bytes, UTF8);
+	}
+
+	private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+		out.writeInt(values.length);
+		for (int v : values)
+			out.writeInt(v);
+	}
+
+	private static int[] readInts(ByteBuffer buf) {
+		int[] values = new int[buf.getInt()];
+		buf.asIntBuffer().get(values);
+		buf.position(buf.position() + values.length * 4);
+		return values;
+	}
+
+	private static void writeBitSet(DataOutputStream out, BitSet set) throws IOException {
+		long[] words = set.toLongArray();
+		out.writeInt(words.length);
+		for (long w : words)
+			out.writeLong(w);
+	}
+
+	private static BitSet readBitSet(ByteBuffer buf) {
+		int numWords = buf.getInt();
+		LongBuffer words = buf.asLongBuffer();
+		words.limit(numWords);
+		BitSet set = BitSet.valueOf(words);
+		buf.position(buf.position() + numWords * 8);
+		return set;
+	}
+}
@@ -0,0 +1,244 @@
+package wsc;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import ec.EvolutionState;
+import ec.Individual;
+import ec.gp.GPIndividual;
+import ec.gp.GPNode;
+import ec.simple.SimpleStatistics;
+import ec.util.Parameter;
+
+/**
+ * Statistics for WSC runs. In addition to what SimpleStatistics writes,
+ * reports how the fitness cache of the WSC problem performed in each
+ * generation.
+ *
+ * If perf-file is set, a CSV record of where the time went is also written
+ * to it for each generation: how long evaluation and breeding took, the
+ * evaluation throughput, the size and depth of the trees, how much memory
+ * was allocated, and how often the initializer counted satisfied inputs
+ * (which evaluation does for each sequence and for the whole composition).
+ * Allocation is measured for the whole JVM, from the heap usage and what the
+ * garbage collector freed in between, so it includes any other runs in the
+ * same JVM.
+ *
+ * If checkpoint-file is set, a WSCCheckpoint of the run is written to it
+ * every checkpoint-modulo generations (by default every generation), once
+ * the generation has been evaluated.
+ */
+public class WSCStatistics extends SimpleStatistics {
+	public static final String P_PERF_FILE = "perf-file";
+	public static final String P_CHECKPOINT_FILE = "checkpoint-file";
+	public static final String P_CHECKPOINT_MODULO = "checkpoint-modulo";
+
+	private long lastHits;
+	private long lastMisses;
+
+	// Where checkpoints are written, null if they aren't
+	public File checkpointFile;
+	public int checkpointModulo;
+
+	// Log of the per-generation records, only written if perf is set
+	public int perflog;
+	private boolean perf;
+	private long evaluationStart;
+	private long evaluationNanos;
+	private long breedingStart;
+	private int evaluations;
+	// Size and depth of the trees in the evaluated population
+	private double meanSize;
+	private int maxSize;
+	private double meanDepth;
+	private int maxDepth;
+	// Heap usage and memory freed by the garbage collector when the generation started
+	private long generationStart;
+	private long heapUsed;
+	private long collected;
+	private final AtomicLong totalCollected = new AtomicLong();
+	private transient NotificationListener gcListener;
+
+	@Override
+	public void setup(final EvolutionState state, final Parameter base) {
+		super.setup(state, base);
+
+		checkpointFile = state.parameters.getFile(base.push(P_CHECKPOINT_FILE), null);
+		checkpointModulo = state.parameters.getIntWithDefault(base.push(P_CHECKPOINT_MODULO), null, 1);
+		if (checkpointModulo < 1)
+			state.output.fatal("Checkpoint modulo must be at least 1", base.push(P_CHECKPOINT_MODULO), null);
+
+		File perfFile = state.parameters.getFile(base.push(P_PERF_FILE), null);
+		if (perfFile == null)
+			return;
+		try {
+			perflog = state.output.addLog(perfFile, true);
+		}
+		catch (IOException i) {
+			state.output.fatal("An IOException occurred while trying to create the log " + perfFile + ":\n" + i);
+		}
+		perf = true;
+		state.output.println("generation,evaluations,evaluationSeconds,breedingSeconds,evaluationsPerSecond,meanSize,maxSize,meanDepth,maxDepth,"
+				+ "allocatedMB,allocatedMBPerSecond,countInputsSatisfiedCalls", perflog);
+		((WSCInitializer) state.initializer).countCalls = true;
+
+		gcListener = new NotificationListener() {
+			@Override
+			public void handleNotification(Notification notification, Object handback) {
+				if (!notification.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION))
+					return;
+				GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+				Map<String, MemoryUsage> after = info.getGcInfo().getMemoryUsageAfterGc();
+				long freed = 0;
+				for (Map.Entry<String, MemoryUsage> pool : info.getGcInfo().getMemoryUsageBeforeGc().entrySet())
+					freed += Math.max(0, pool.getValue().getUsed() - after.get(pool.getKey()).getUsed());
+				totalCollected.addAndGet(freed);
+			}
+		};
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			if (gc instanceof NotificationEmitter)
+				((NotificationEmitter) gc).addNotificationListener(gcListener, null, null);
+		}
+	}
+
+	@Override
+	public void preEvaluationStatistics(final EvolutionState state) {
+		super.preEvaluationStatistics(state);
+		if (!perf)
+			return;
+
+		generationStart = System.nanoTime();
+		heapUsed = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+		collected = totalCollected.get();
+		evaluations = 0;
+		for (int s = 0; s < state.population.subpops.length; s++) {
+			for (Individual ind : state.population.subpops[s].individuals) {
+				if (!ind.evaluated)
+					evaluations++;
+			}
+		}
+		evaluationStart = System.nanoTime();
+	}
+
+	@Override
+	public void postEvaluationStatistics(final EvolutionState state) {
+		if (perf) {
+			evaluationNanos = System.nanoTime() - evaluationStart;
+			measureTrees(state);
+		}
+		super.postEvaluationStatistics(state);
+
+		FitnessCache cache = ((WSC) state.evaluator.p_problem).cache;
+		if (cache != null) {
+			long hits = cache.getHits();
+			long misses = cache.getMisses();
+			state.output.println("Fitness cache: " + (hits - lastHits) + " hits, " + (misses - lastMisses) + " misses, "
+					+ cache.size() + " entries (" + hits + " hits, " + misses + " misses in total)", statisticslog);
+			lastHits = hits;
+			lastMisses = misses;
+		}
+
+		if (checkpointFile != null && state.generation % checkpointModulo == 0) {
+			try {
+				WSCCheckpoint.write(state, checkpointFile);
+			}
+			catch (IOException e) {
+				state.output.warning("Could not write checkpoint " + checkpointFile + ": " + e);
+			}
+		}
+	}
+
+	@Override
+	public void preBreedingStatistics(final EvolutionState state) {
+		super.preBreedingStatistics(state);
+		breedingStart = System.nanoTime();
+	}
+
+	@Override
+	public void postBreedingStatistics(final EvolutionState state) {
+		super.postBreedingStatistics(state);
+		if (perf)
+			writeRecord(state, System.nanoTime() - breedingStart);
+	}
+
+	@Override
+	public void finalStatistics(final EvolutionState state, final int result) {
+		super.finalStatistics(state, result);
+		// ECJ reports an early stop as finding the ideal individual
+		if (state.evaluator instanceof WSCEvaluator && ((WSCEvaluator) state.evaluator).stopReason != null)
+			state.output.println("Stopped early: " + ((WSCEvaluator) state.evaluator).stopReason, statisticslog);
+		if (!perf)
+			return;
+
+		// The last generation ends without breeding
+		writeRecord(state, 0);
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			try {
+				if (gc instanceof NotificationEmitter)
+					((NotificationEmitter) gc).removeNotificationListener(gcListener);
+			}
+			catch (ListenerNotFoundException e) {
+				// Never added to this collector
+			}
+		}
+		perf = false;
+	}
+
+	private void writeRecord(EvolutionState state, long breedingNanos) {
+		// Measure first, so that the rest of the record is not counted
+		long nanos = System.nanoTime() - generationStart;
+		long allocated = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed() - heapUsed + totalCollected.get() - collected;
+		WSCInitializer init = (WSCInitializer) state.initializer;
+		state.output.println(String.format(Locale.US, "%d,%d,%.6f,%.6f,%.1f,%.2f,%d,%.2f,%d,%.3f,%.1f,%d", state.generation, evaluations,
+				evaluationNanos / 1e9, breedingNanos / 1e9, evaluations / (evaluationNanos / 1e9), meanSize, maxSize, meanDepth, maxDepth,
+				allocated / 1048576.0, allocated / 1048576.0 / (nanos / 1e9),
+				init.satisfiedCalls.sumThenReset()), perflog);
+	}
+
+	private void measureTrees(EvolutionState state) {
+		long totalSize = 0;
+		maxSize = 0;
+		long totalDepth = 0;
+		maxDepth = 0;
+		int trees = 0;
+		for (int s = 0; s < state.population.subpops.length; s++) {
+			for (Individual ind : state.population.subpops[s].individuals) {
+				int n = ind instanceof LinearIndividual ? 1 : ((GPIndividual) ind).trees.length;
+				for (int t = 0; t < n; t++) {
+					int size;
+					int depth;
+					if (ind instanceof LinearIndividual) {
+						size = (int) ind.size();
+						depth = ((LinearIndividual) ind).depth();
+					}
+					else {
+						GPNode root = ((GPIndividual) ind).trees[t].child;
+						size = root.numNodes(GPNode.NODESEARCH_ALL);
+						depth = root.depth();
+					}
+					totalSize += size;
+					maxSize = Math.max(maxSize, size);
+					totalDepth += depth;
+					maxDepth = Math.max(maxDepth, depth);
+					trees++;
+				}
+			}
+		}
+		meanSize = (double) totalSize / trees;
+		meanDepth = (double) totalDepth / trees;
+	}
+}
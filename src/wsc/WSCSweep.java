@@ -0,0 +1,162 @@
+package wsc;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import ec.EvolutionState;
+import ec.Individual;
+import ec.Statistics;
+import ec.util.Parameter;
+
+/**
+ * Statistics that sweep the fitness weights over the compositions evaluated
+ * during a run. The raw fitness components of every composition evaluated
+ * are kept in an archive, and at the end of the run the whole archive is
+ * rescored under each of a list of weight vectors, without evaluating any
+ * tree again. For each weight vector, the best composition in the archive
+ * is written to the sweep file as a CSV record with the weights, its
+ * fitness under them, its raw components and its tree.
+ *
+ * The archive only holds what the run's own weights led the search to, so
+ * the further a weight vector is from them, the less the best composition
+ * found for it can be relied on. nsga2.params runs a multi-objective search
+ * instead, which doesn't favour any weight vector over another.
+ *
+ * Added as a child of the run's statistics, with
+ *   stat.num-children = 1
+ *   stat.child.0 = wsc.WSCSweep
+ *   stat.child.0.file = $sweep.csv
+ *   stat.child.0.num-weights = 2
+ *   stat.child.0.weights.0 = 0.2 0.3 0.2 0.3 0.3 0.3 0.4
+ *   stat.child.0.weights.1 = 0.1 0.1 0.4 0.4 0.3 0.3 0.4
+ * where each weight vector gives w1 to w7, in the order of fitness-weight1
+ * to fitness-weight7.
+ */
+public class WSCSweep extends Statistics {
+	public static final String P_FILE = "file";
+	public static final String P_NUM_WEIGHTS = "num-weights";
+	public static final String P_WEIGHTS = "weights";
+
+	public int sweeplog;
+	public double[][] weights;
+
+	// Archive of evaluated compositions, with their components as one column per component
+	private Individual[] archive = new Individual[0];
+	private double[][] columns = new double[WSCFitness.COMPONENTS][0];
+	private int size;
+	// Individuals about to be evaluated, added to the archive once they are
+	private Individual[] pending = new Individual[0];
+	private int numPending;
+
+	@Override
+	public void setup(final EvolutionState state, final Parameter base) {
+		super.setup(state, base);
+
+		File sweepFile = state.parameters.getFile(base.push(P_FILE), null);
+		if (sweepFile == null)
+			state.output.fatal("No file given for the weight sweep", base.push(P_FILE));
+		try {
+			sweeplog = state.output.addLog(sweepFile, true);
+		}
+		catch (IOException i) {
+			state.output.fatal("An IOException occurred while trying to create the log " + sweepFile + ":\n" + i);
+		}
+
+		int numWeights = state.parameters.getInt(base.push(P_NUM_WEIGHTS), null, 1);
+		if (numWeights < 1)
+			state.output.fatal("The weight sweep needs at least one weight vector", base.push(P_NUM_WEIGHTS));
+		weights = new double[numWeights][];
+		for (int v = 0; v < numWeights; v++) {
+			Parameter p = base.push(P_WEIGHTS).push("" + v);
+			String value = state.parameters.getString(p, null);
+			if (value == null)
+				state.output.fatal("No weight vector given", p);
+			String[] values = value.trim().split("\\s+");
+			if (values.length != WSCFitness.COMPONENTS)
+				state.output.fatal("A weight vector needs " + WSCFitness.COMPONENTS + " weights", p);
+			weights[v] = new double[WSCFitness.COMPONENTS];
+			try {
+				for (int c = 0; c < WSCFitness.COMPONENTS; c++)
+					weights[v][c] = Double.parseDouble(values[c]);
+			}
+			catch (NumberFormatException e) {
+				state.output.fatal("Weights must be numbers", p);
+			}
+		}
+	}
+
+	@Override
+	public void preEvaluationStatistics(final EvolutionState state) {
+		super.preEvaluationStatistics(state);
+		numPending = 0;
+		for (int s = 0; s < state.population.subpops.length; s++) {
+			for (Individual ind : state.population.subpops[s].individuals) {
+				if (ind.evaluated)
+					continue;
+				if (!(ind.fitness instanceof WSCFitness))
+					state.output.fatal("Fitness class must be " + WSCFitness.class + " to sweep the weights");
+				if (numPending == pending.length)
+					pending = Arrays.copyOf(pending, Math.max(numPending * 2, 64));
+				pending[numPending++] = ind;
+			}
+		}
+	}
+
+	@Override
+	public void postEvaluationStatistics(final EvolutionState state) {
+		super.postEvaluationStatistics(state);
+		if (size + numPending > archive.length) {
+			int capacity = Math.max(size + numPending, archive.length * 2);
+			archive = Arrays.copyOf(archive, capacity);
+			for (int c = 0; c < WSCFitness.COMPONENTS; c++)
+				columns[c] = Arrays.copyOf(columns[c], capacity);
+		}
+		// Breeding copies individuals rather than changing them, so the archive can keep them
+		for (int k = 0; k < numPending; k++) {
+			double[] components = ((WSCFitness) pending[k].fitness).components;
+			for (int c = 0; c < WSCFitness.COMPONENTS; c++)
+				columns[c][size] = components[c];
+			archive[size++] = pending[k];
+			pending[k] = null;
+		}
+	}
+
+	@Override
+	public void finalStatistics(final EvolutionState state, final int result) {
+		super.finalStatistics(state, result);
+
+		StringBuilder header = new StringBuilder();
+		for (int w = 1; w <= WSCFitness.COMPONENTS; w++)
+			header.append('w').append(w).append(',');
+		header.append("fitness,availability,reliability,time,cost,inputs,outputs,connections,composition");
+		state.output.println(header.toString(), sweeplog);
+		if (size == 0)
+			return;
+
+		// Normalise a copy, so that the raw components can still be reported
+		double[][] normalised = new double[WSCFitness.COMPONENTS][];
+		for (int c = 0; c < WSCFitness.COMPONENTS; c++)
+			normalised[c] = Arrays.copyOf(columns[c], size);
+		WSC.normalise(normalised, size, (WSCInitializer) state.initializer);
+
+		double[] fitness = new double[size];
+		for (double[] w : weights) {
+			WSC.weigh(normalised, size, fitness, w);
+			int best = 0;
+			for (int k = 1; k < size; k++) {
+				if (fitness[k] > fitness[best])
+					best = k;
+			}
+
+			StringBuilder record = new StringBuilder();
+			for (double v : w)
+				record.append(v).append(',');
+			record.append(fitness[best]);
+			for (int c = 0; c < WSCFitness.COMPONENTS; c++)
+				record.append(',').append(columns[c][best]);
+			record.append(',').append(WSC.toLisp(archive[best], (WSCInitializer) state.initializer));
+			state.output.println(record.toString(), sweeplog);
+		}
+	}
+}